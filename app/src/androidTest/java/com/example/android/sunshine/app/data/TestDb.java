@@ -16,10 +16,14 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ContentValues;
+import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.test.AndroidTestCase;
 
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
 import java.util.HashSet;
 
 public class TestDb extends AndroidTestCase {
@@ -91,6 +95,9 @@ public class TestDb extends AndroidTestCase {
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_CITY_ID);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_ETAG);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED);
 
         int columnNameIndex = c.getColumnIndex("name");
         do {
@@ -143,6 +150,9 @@ public class TestDb extends AndroidTestCase {
 
         // Second Step (Weather): Create weather values
         ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        // Written straight to the database, so with the day number the provider would add
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DAY,
+                WeatherContract.getDayNumber(TestUtilities.TEST_DATE));
 
         // Third Step (Weather): Insert ContentValues into database and get a row ID back
         long weatherRowId = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues);
@@ -177,6 +187,62 @@ public class TestDb extends AndroidTestCase {
     }
 
 
+    /*
+        A version 8 database, with weather keyed by date, keeps its rows on upgrade and gains
+        their day numbers, which become the key.
+     */
+    public void testUpgradeAddsDayNumbers() {
+        long millisecondsInADay = 1000*60*60*24;
+        SQLiteDatabase oldDb = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME,
+                Context.MODE_PRIVATE, null);
+        oldDb.execSQL("CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_CONTENT_HASH + " INTEGER, " +
+                " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);");
+        long[] dates = new long[3];
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = WeatherContract.normalizeDate(
+                    TestUtilities.TEST_DATE + i * millisecondsInADay);
+            ContentValues values = TestUtilities.createWeatherValues(1);
+            values.put(WeatherEntry.COLUMN_DATE, dates[i]);
+            assertTrue(oldDb.insert(WeatherEntry.TABLE_NAME, null, values) != -1);
+        }
+        oldDb.setVersion(8);
+        oldDb.close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME,
+                new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_DAY},
+                null, null, null, null, WeatherEntry._ID);
+        assertEquals("Error: the upgrade lost weather rows", dates.length, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals(dates[i], cursor.getLong(0));
+            assertEquals("Error: the upgrade gave a row the wrong day number",
+                    WeatherContract.getDayNumber(dates[i]), cursor.getInt(1));
+        }
+        cursor.close();
+
+        // Another row for a stored day replaces it, whatever time of day it's dated
+        ContentValues sameDay = TestUtilities.createWeatherValues(1);
+        sameDay.put(WeatherEntry.COLUMN_DATE, dates[0] + 1);
+        sameDay.put(WeatherEntry.COLUMN_DAY, WeatherContract.getDayNumber(dates[0]));
+        assertTrue(db.insert(WeatherEntry.TABLE_NAME, null, sameDay) != -1);
+        assertEquals(dates.length, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+        dbHelper.close();
+    }
+
     /*
         Students: This is a helper method for the testWeatherTable quiz. You can move your
         code from testLocationTable to here so that you can call this code from both
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Measures the provider's database paths and reports to the log: reader latency while a
+    sync-sized write transaction is in progress, bulkInsert throughput against inserting
+    row by row, and the archive's size and range reads against keeping days as weather rows.
+    With write-ahead logging the reads go on during the write; without it they queue behind it.
+ */
+public class TestDbBenchmark extends AndroidTestCase {
+    private static final String LOG_TAG = TestDbBenchmark.class.getSimpleName();
+
+    // Rows in the write transaction: enough for it to take a while on any device
+    private static final int NUM_WRITE_ROWS = 5000;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    // History for the archive comparison: three years of one location
+    private static final int NUM_ARCHIVE_DAYS = 3 * 365;
+    private static final int NUM_SCAN_RUNS = 20;
+
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        Uri locationUri = mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues());
+        mLocationRowId = ContentUris.parseId(locationUri);
+        // Something for the readers to read
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, createWeatherValues(14, 0));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private ContentValues[] createWeatherValues(int numDays, int firstDay) {
+        ContentValues[] values = new ContentValues[numDays];
+        for (int i = 0; i < numDays; i++) {
+            values[i] = TestUtilities.createWeatherValues(mLocationRowId);
+            // With their day numbers already, as the sync writes them, so both insert paths
+            // store the same rows
+            long date = WeatherContract.normalizeDate(
+                    TestUtilities.TEST_DATE + (firstDay + i) * DAY_IN_MILLIS);
+            values[i].put(WeatherEntry.COLUMN_DATE, date);
+            values[i].put(WeatherEntry.COLUMN_DAY, WeatherContract.getDayNumber(date));
+        }
+        return values;
+    }
+
+    public void testReadsDuringWrite() throws Exception {
+        final ContentValues[] writeValues = createWeatherValues(NUM_WRITE_ROWS, 14);
+        final long[] writeSpan = new long[2];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeSpan[0] = System.nanoTime();
+                // One transaction, as the sync's batch is
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, writeValues);
+                writeSpan[1] = System.nanoTime();
+            }
+        });
+
+        Uri forecastUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        List<long[]> reads = new ArrayList<long[]>();
+        writer.start();
+        do {
+            long readStart = System.nanoTime();
+            Cursor cursor = mContext.getContentResolver().query(forecastUri, null, null, null,
+                    WeatherEntry.COLUMN_DAY + " ASC");
+            // Loaders fill the window on the reading thread; so does this
+            assertTrue(cursor.moveToFirst());
+            cursor.close();
+            reads.add(new long[]{readStart, System.nanoTime()});
+        } while (writer.isAlive());
+        writer.join();
+
+        List<Long> latencies = new ArrayList<Long>(reads.size());
+        int readsDuringWrite = 0;
+        for (long[] read : reads) {
+            latencies.add(read[1] - read[0]);
+            if (read[0] > writeSpan[0] && read[1] < writeSpan[1]) {
+                readsDuringWrite++;
+            }
+        }
+
+        long writeMillis = (writeSpan[1] - writeSpan[0]) / 1000000;
+        Collections.sort(latencies);
+        long p50 = latencies.get(latencies.size() / 2) / 1000000;
+        long max = latencies.get(latencies.size() - 1) / 1000000;
+        Log.i(LOG_TAG, NUM_WRITE_ROWS + " row write took " + writeMillis + "ms; " +
+                latencies.size() + " reads, " + readsDuringWrite + " during the write, p50 " +
+                p50 + "ms, max " + max + "ms, write-ahead logging " +
+                WeatherDbHelper.isWriteAheadLoggingSupported());
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // Readers have connections of their own and never wait for the commit
+            assertTrue("Reads must not queue behind the write: " + readsDuringWrite,
+                    readsDuringWrite > 1);
+        }
+    }
+
+    /*
+        Inserts the same rows in one transaction both ways: row by row with SQLiteDatabase.insert,
+        and through the provider's bulkInsert.
+     */
+    public void testBulkInsertThroughput() {
+        ContentValues[] values = createWeatherValues(NUM_WRITE_ROWS, 14);
+        String[] writtenDays = new String[]{values[0].getAsString(WeatherEntry.COLUMN_DAY)};
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long start = System.nanoTime();
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                assertTrue(db.insert(WeatherEntry.TABLE_NAME, null, value) != -1);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long rowByRowMillis = (System.nanoTime() - start) / 1000000;
+        db.delete(WeatherEntry.TABLE_NAME, WeatherEntry.COLUMN_DAY + " >= ?", writtenDays);
+        dbHelper.close();
+
+        start = System.nanoTime();
+        int insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+        long bulkMillis = (System.nanoTime() - start) / 1000000;
+        assertEquals(NUM_WRITE_ROWS, insertCount);
+
+        Log.i(LOG_TAG, NUM_WRITE_ROWS + " rows: row by row " + rowByRowMillis + "ms (" +
+                (NUM_WRITE_ROWS * 1000L / Math.max(1, rowByRowMillis)) + "/s), bulkInsert " +
+                bulkMillis + "ms (" + (NUM_WRITE_ROWS * 1000L / Math.max(1, bulkMillis)) + "/s)");
+
+        // The rows the statement stored are the rows we asked for
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry.COLUMN_DAY + " >= ?", writtenDays, WeatherEntry.COLUMN_DAY + " ASC");
+        assertEquals(NUM_WRITE_ROWS, cursor.getCount());
+        assertTrue(cursor.moveToLast());
+        TestUtilities.validateCurrentRecord("Error validating the last bulk inserted row",
+                cursor, values[NUM_WRITE_ROWS - 1]);
+        cursor.close();
+    }
+
+    private static long getSize(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                * DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+    }
+
+    /*
+        Keeps the same three years of days both ways, as weather rows and as archive blocks,
+        each in an in-memory database of its own with the app's schema, then compares the space
+        they take and how long a year of them takes to read back.
+     */
+    public void testArchiveStorageAndScan() {
+        ContentValues[] values = createWeatherValues(NUM_ARCHIVE_DAYS, 0);
+        for (int i = 0; i < NUM_ARCHIVE_DAYS; i++) {
+            // Weather that moves from day to day, as real weather does
+            values[i].put(WeatherEntry.COLUMN_MIN_TEMP, 5 + (i * 7) % 11 - 0.3 * (i % 4));
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, 15 + (i * 5) % 13 + 0.7 * (i % 3));
+            values[i].put(WeatherEntry.COLUMN_PRESSURE, 1013.2 + (i % 9) - 4);
+            values[i].put(WeatherEntry.COLUMN_HUMIDITY, 40 + (i * 3) % 50);
+        }
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase rowsDb = SQLiteDatabase.create(null);
+        SQLiteDatabase archiveDb = SQLiteDatabase.create(null);
+        dbHelper.onCreate(rowsDb);
+        dbHelper.onCreate(archiveDb);
+        long emptySize = getSize(rowsDb);
+
+        rowsDb.beginTransaction();
+        for (ContentValues value : values) {
+            assertTrue(rowsDb.insert(WeatherEntry.TABLE_NAME, null, value) != -1);
+        }
+        rowsDb.setTransactionSuccessful();
+        rowsDb.endTransaction();
+
+        // Month by month, as the provider merges them
+        archiveDb.beginTransaction();
+        ArchiveBlock block = new ArchiveBlock();
+        int month = ArchiveBlock.getMonth(values[0].getAsLong(WeatherEntry.COLUMN_DATE));
+        for (int i = 0; i <= NUM_ARCHIVE_DAYS; i++) {
+            int dayMonth = i < NUM_ARCHIVE_DAYS
+                    ? ArchiveBlock.getMonth(values[i].getAsLong(WeatherEntry.COLUMN_DATE)) : -1;
+            if (dayMonth != month) {
+                ContentValues row = new ContentValues();
+                row.put(ArchiveEntry.COLUMN_LOC_KEY, mLocationRowId);
+                row.put(ArchiveEntry.COLUMN_MONTH, month);
+                row.put(ArchiveEntry.COLUMN_DATA, block.encode());
+                assertTrue(archiveDb.insert(ArchiveEntry.TABLE_NAME, null, row) != -1);
+                block = new ArchiveBlock();
+                month = dayMonth;
+            }
+            if (i < NUM_ARCHIVE_DAYS) {
+                block.put(values[i]);
+            }
+        }
+        archiveDb.setTransactionSuccessful();
+        archiveDb.endTransaction();
+
+        long rowsBytes = getSize(rowsDb) - emptySize;
+        long archiveBytes = getSize(archiveDb) - emptySize;
+
+        // The middle year
+        long startDate = values[365].getAsLong(WeatherEntry.COLUMN_DATE);
+        long endDate = values[2 * 365 - 1].getAsLong(WeatherEntry.COLUMN_DATE);
+        String[] rowsArgs = {Long.toString(mLocationRowId),
+                values[365].getAsString(WeatherEntry.COLUMN_DAY),
+                values[2 * 365 - 1].getAsString(WeatherEntry.COLUMN_DAY)};
+        int startKey = ArchiveCursor.getDayKey(
+                ArchiveBlock.getMonth(startDate), ArchiveBlock.getDay(startDate));
+        int endKey = ArchiveCursor.getDayKey(
+                ArchiveBlock.getMonth(endDate), ArchiveBlock.getDay(endDate));
+        String[] archiveArgs = {Long.toString(mLocationRowId), Integer.toString(startKey / 32),
+                Integer.toString(endKey / 32)};
+
+        int rowsRead = 0;
+        long start = System.nanoTime();
+        for (int run = 0; run < NUM_SCAN_RUNS; run++) {
+            Cursor cursor = rowsDb.query(WeatherEntry.TABLE_NAME, ArchiveEntry.COLUMNS,
+                    WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DAY +
+                            " BETWEEN ? AND ?", rowsArgs, null, null,
+                    WeatherEntry.COLUMN_DAY + " ASC");
+            rowsRead = readAll(cursor);
+        }
+        long rowsMicros = (System.nanoTime() - start) / 1000 / NUM_SCAN_RUNS;
+
+        int archiveRead = 0;
+        start = System.nanoTime();
+        for (int run = 0; run < NUM_SCAN_RUNS; run++) {
+            Cursor blocks = archiveDb.query(ArchiveEntry.TABLE_NAME,
+                    new String[]{ArchiveEntry.COLUMN_MONTH, ArchiveEntry.COLUMN_DATA},
+                    WeatherProvider.sArchiveRangeSelection, archiveArgs, null, null,
+                    ArchiveEntry.COLUMN_MONTH + " ASC");
+            archiveRead = readAll(new ArchiveCursor(blocks, null, startKey, endKey));
+        }
+        long archiveMicros = (System.nanoTime() - start) / 1000 / NUM_SCAN_RUNS;
+
+        rowsDb.close();
+        archiveDb.close();
+
+        Log.i(LOG_TAG, NUM_ARCHIVE_DAYS + " days: rows " + rowsBytes + " bytes, archive " +
+                archiveBytes + " bytes; a year read back: rows " + rowsMicros + "us, archive " +
+                archiveMicros + "us");
+        assertEquals(365, rowsRead);
+        assertEquals("The archive read a different range than the rows", rowsRead, archiveRead);
+        assertTrue("The archive must take less space than the rows: " + archiveBytes,
+                archiveBytes < rowsBytes);
+    }
+
+    /*
+        Reads every column of every row, as a chart of the range would, and closes the cursor.
+     */
+    private static int readAll(Cursor cursor) {
+        int count = 0;
+        while (cursor.moveToNext()) {
+            for (int i = 0; i < cursor.getColumnCount(); i++) {
+                cursor.getDouble(i);
+            }
+            count++;
+        }
+        cursor.close();
+        return count;
+    }
+}
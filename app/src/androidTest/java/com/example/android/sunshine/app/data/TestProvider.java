@@ -15,20 +15,36 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.ComponentName;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
+import android.os.RemoteException;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.DiagnosticsEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherStatsEntry;
+import com.example.android.sunshine.app.sync.SyncMetrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
@@ -51,6 +67,11 @@ public class TestProvider extends AndroidTestCase {
        the delete functionality in the ContentProvider.
      */
     public void deleteAllRecordsFromProvider() {
+        mContext.getContentResolver().delete(
+                ArchiveEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 WeatherEntry.CONTENT_URI,
                 null,
@@ -155,6 +176,12 @@ public class TestProvider extends AndroidTestCase {
         assertEquals("Error: the WeatherEntry CONTENT_URI with location and date should return WeatherEntry.CONTENT_ITEM_TYPE",
                 WeatherEntry.CONTENT_ITEM_TYPE, type);
 
+        // content://com.example.android.sunshine.app/weather/94074/stats
+        type = mContext.getContentResolver().getType(
+                WeatherStatsEntry.buildStatsUri(testLocation, testDate, testDate));
+        assertEquals("Error: the stats URI should return WeatherStatsEntry.CONTENT_ITEM_TYPE",
+                WeatherStatsEntry.CONTENT_ITEM_TYPE, type);
+
         // content://com.example.android.sunshine.app/location/
         type = mContext.getContentResolver().getType(LocationEntry.CONTENT_URI);
         // vnd.android.cursor.dir/com.example.android.sunshine.app/location
@@ -178,6 +205,9 @@ public class TestProvider extends AndroidTestCase {
 
         // Fantastic.  Now that we have a location, add some weather!
         ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        // Written straight to the database, so with the day number the provider would add
+        weatherValues.put(WeatherEntry.COLUMN_DAY,
+                WeatherContract.getDayNumber(TestUtilities.TEST_DATE));
 
         long weatherRowId = db.insert(WeatherEntry.TABLE_NAME, null, weatherValues);
         assertTrue("Unable to Insert WeatherEntry into the Database", weatherRowId != -1);
@@ -473,9 +503,7 @@ public class TestProvider extends AndroidTestCase {
         TestUtilities.validateCursor("testBulkInsert. Error validating LocationEntry.",
                 cursor, testValues);
 
-        // Now we can bulkInsert some weather.  In fact, we only implement BulkInsert for weather
-        // entries.  With ContentProviders, you really only have to implement the features you
-        // use, after all.
+        // Now we can bulkInsert some weather.
         ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
 
         // Register a content observer for our bulk insert.
@@ -512,4 +540,672 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        Rows the database refuses, one without a location and one without a date or day, are
+        skipped and not counted, rather than failing the rest of the batch.
+     */
+    public void testBulkInsertSkipsRefusedRows() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        weatherValues[2].remove(WeatherEntry.COLUMN_LOC_KEY);
+        weatherValues[5].remove(WeatherEntry.COLUMN_DATE);
+
+        int insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                weatherValues);
+        assertEquals("Error: refused rows were counted",
+                BULK_INSERT_RECORDS_TO_INSERT - 2, insertCount);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 2, cursor.getCount());
+        cursor.close();
+
+        // A batch of nothing but refused rows stores and counts nothing
+        ContentValues refused = TestUtilities.createWeatherValues(locationRowId);
+        refused.remove(WeatherEntry.COLUMN_LOC_KEY);
+        assertEquals(0, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{refused}));
+    }
+
+    public void testBulkInsertLocations() {
+        ContentValues[] locations = new ContentValues[BULK_INSERT_RECORDS_TO_INSERT];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = TestUtilities.createNorthPoleLocationValues();
+            locations[i].put(LocationEntry.COLUMN_LOCATION_SETTING, "9970" + i);
+        }
+        // The unique location setting must refuse a second copy
+        ContentValues duplicate = new ContentValues(locations[2]);
+
+        ContentValues[] values = new ContentValues[locations.length + 1];
+        System.arraycopy(locations, 0, values, 0, locations.length);
+        values[locations.length] = duplicate;
+        int insertCount = mContext.getContentResolver().bulkInsert(LocationEntry.CONTENT_URI, values);
+        assertEquals("Error: the duplicate location should have been skipped",
+                BULK_INSERT_RECORDS_TO_INSERT, insertCount);
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                null, null, LocationEntry.COLUMN_LOCATION_SETTING + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testBulkInsertLocations.  Error validating " + i,
+                    cursor, locations[i]);
+            // Columns the values left out are stored null
+            assertTrue(cursor.isNull(cursor.getColumnIndex(LocationEntry.COLUMN_CITY_ID)));
+        }
+        cursor.close();
+    }
+
+    /*
+        A new location and its weather in one batch: the weather rows take their location key
+        from the location insert earlier in the same batch.
+     */
+    static ArrayList<ContentProviderOperation> createLocationRefreshOperations() {
+        ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+        ops.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        for (ContentValues weatherValues : createBulkInsertWeatherValues(0)) {
+            weatherValues.remove(WeatherEntry.COLUMN_LOC_KEY);
+            ops.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        return ops;
+    }
+
+    public void testApplyBatch() throws Exception {
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, createLocationRefreshOperations());
+
+        // The notifications held back during the batch go out once it has committed
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT + 1, results.length);
+        long locationRowId = ContentUris.parseId(results[0].uri);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationRowId)},
+                null
+        );
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testApplyBatchIsAtomic() {
+        ArrayList<ContentProviderOperation> ops = createLocationRefreshOperations();
+        // Fails after every insert has been applied
+        ops.add(ContentProviderOperation.newAssertQuery(LocationEntry.CONTENT_URI)
+                .withExpectedCount(2)
+                .build());
+
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, ops);
+            fail("Expected the assert to fail the batch");
+        } catch (OperationApplicationException e) {
+            // expected
+        } catch (RemoteException e) {
+            fail("Provider is local: " + e);
+        }
+
+        // None of the batch may have been kept
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: location insert survived a failed batch", 0, cursor.getCount());
+        cursor.close();
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: weather inserts survived a failed batch", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        An upsert inside a batch that rolls back leaves no id cached for the row it created.
+     */
+    public void testBatchUpsertCachedOnlyOnCommit() throws Exception {
+        LocationIdCache.getInstance().invalidate();
+        ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+        ops.add(ContentProviderOperation.newInsert(LocationEntry.UPSERT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        ops.add(ContentProviderOperation.newAssertQuery(LocationEntry.CONTENT_URI)
+                .withExpectedCount(2)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, ops);
+            fail("Expected the assert to fail the batch");
+        } catch (OperationApplicationException e) {
+            // expected
+        }
+        assertEquals("Error: a rolled back upsert's id was cached",
+                -1, LocationIdCache.getInstance().get(TestUtilities.TEST_LOCATION));
+
+        // The same upsert, committed, is cached
+        ops.remove(1);
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, ops);
+        assertEquals(ContentUris.parseId(results[0].uri),
+                LocationIdCache.getInstance().get(TestUtilities.TEST_LOCATION));
+    }
+
+    public void testLocationUpsert() {
+        Uri firstUri = mContext.getContentResolver().insert(
+                LocationEntry.UPSERT_URI, TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(firstUri);
+        assertTrue("Error: upsert didn't add the location", locationRowId != -1);
+        assertEquals("Error: upsert didn't cache the location's id",
+                locationRowId, LocationIdCache.getInstance().get(TestUtilities.TEST_LOCATION));
+
+        // A second upsert of the same setting finds the same row and adds none
+        ContentValues renamed = TestUtilities.createNorthPoleLocationValues();
+        renamed.put(LocationEntry.COLUMN_CITY_NAME, "Santa's Workshop");
+        Uri secondUri = mContext.getContentResolver().insert(LocationEntry.UPSERT_URI, renamed);
+        assertEquals(locationRowId, ContentUris.parseId(secondUri));
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_CITY_NAME}, null, null, null);
+        assertEquals("Error: upsert duplicated the location", 1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: upsert overwrote the stored location", "North Pole",
+                cursor.getString(0));
+        cursor.close();
+
+        // Deleting locations makes the cached ids untrustworthy
+        deleteAllRecordsFromProvider();
+        assertEquals("Error: deleting locations didn't invalidate the cache",
+                -1, LocationIdCache.getInstance().get(TestUtilities.TEST_LOCATION));
+    }
+
+    /*
+        Days archived a few at a time read back in date order, a month block at a time,
+        rounded as the archive keeps them.
+     */
+    public void testArchive() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+
+        // Forty days from the test date, over a month boundary, in two batches
+        int numDays = 40;
+        long millisecondsInADay = 1000*60*60*24;
+        ContentValues[] days = new ContentValues[numDays];
+        for (int i = 0; i < numDays; i++) {
+            days[i] = TestUtilities.createWeatherValues(locationRowId);
+            days[i].put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(
+                    TestUtilities.TEST_DATE + i * millisecondsInADay));
+            days[i].put(WeatherEntry.COLUMN_MAX_TEMP, 75 + i % 7 - 0.04);
+        }
+        assertEquals(25, mContext.getContentResolver().bulkInsert(ArchiveEntry.CONTENT_URI,
+                Arrays.copyOfRange(days, 0, 25)));
+        assertEquals(15, mContext.getContentResolver().bulkInsert(ArchiveEntry.CONTENT_URI,
+                Arrays.copyOfRange(days, 25, numDays)));
+        // Archiving a day again replaces it
+        mContext.getContentResolver().insert(ArchiveEntry.CONTENT_URI, days[3]);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                ArchiveEntry.buildArchiveLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertEquals("Error: the archive didn't keep every day", numDays, cursor.getCount());
+        int dateColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_DATE);
+        int maxColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP);
+        int pressureColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_PRESSURE);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals("Error: archived days out of order",
+                    days[i].getAsLong(WeatherEntry.COLUMN_DATE).longValue(),
+                    cursor.getLong(dateColumn));
+            assertEquals(75 + i % 7, cursor.getDouble(maxColumn), 0.001);
+            assertEquals(1.3, cursor.getDouble(pressureColumn), 0.001);
+        }
+        cursor.close();
+
+        // A range, from the middle of one month block to the middle of the next
+        long startDate = days[10].getAsLong(WeatherEntry.COLUMN_DATE);
+        long endDate = days[29].getAsLong(WeatherEntry.COLUMN_DATE);
+        cursor = mContext.getContentResolver().query(
+                ArchiveEntry.buildArchiveLocationWithRange(TestUtilities.TEST_LOCATION,
+                        startDate, endDate),
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+        assertEquals("Error: the archive range read the wrong days", 20, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(startDate, cursor.getLong(0));
+        assertTrue(cursor.moveToLast());
+        assertEquals(endDate, cursor.getLong(0));
+        cursor.close();
+    }
+
+    /*
+        The stats and conditions URIs summarize just the days in their range, and an empty range
+        to a count of zero.
+     */
+    public void testWeatherStats() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        for (int i = 0; i < weatherValues.length; i += 3) {
+            weatherValues[i].put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        // Days 2 to 5
+        long fromDate = weatherValues[2].getAsLong(WeatherEntry.COLUMN_DATE);
+        long toDate = weatherValues[5].getAsLong(WeatherEntry.COLUMN_DATE);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherStatsEntry.buildStatsUri(TestUtilities.TEST_LOCATION, fromDate, toDate),
+                null, null, null, null);
+        assertTrue("Error: no stats returned", cursor.moveToFirst());
+        assertEquals(1, cursor.getCount());
+        assertEquals(4, cursor.getInt(cursor.getColumnIndex(WeatherStatsEntry.COLUMN_DAY_COUNT)));
+        assertEquals(60, cursor.getDouble(
+                cursor.getColumnIndex(WeatherStatsEntry.COLUMN_LOWEST_TEMP)), 0.001);
+        assertEquals(80, cursor.getDouble(
+                cursor.getColumnIndex(WeatherStatsEntry.COLUMN_HIGHEST_TEMP)), 0.001);
+        assertEquals(61.5, cursor.getDouble(
+                cursor.getColumnIndex(WeatherStatsEntry.COLUMN_MEAN_MIN_TEMP)), 0.001);
+        assertEquals(78.5, cursor.getDouble(
+                cursor.getColumnIndex(WeatherStatsEntry.COLUMN_MEAN_MAX_TEMP)), 0.001);
+        assertEquals(1.22, cursor.getDouble(
+                cursor.getColumnIndex(WeatherStatsEntry.COLUMN_MIN_HUMIDITY)), 0.001);
+        assertEquals(1.25, cursor.getDouble(
+                cursor.getColumnIndex(WeatherStatsEntry.COLUMN_MAX_HUMIDITY)), 0.001);
+        assertEquals(1.235, cursor.getDouble(
+                cursor.getColumnIndex(WeatherStatsEntry.COLUMN_MEAN_HUMIDITY)), 0.001);
+        assertEquals(1.25, cursor.getDouble(
+                cursor.getColumnIndex(WeatherStatsEntry.COLUMN_MIN_PRESSURE)), 0.001);
+        assertEquals(1.28, cursor.getDouble(
+                cursor.getColumnIndex(WeatherStatsEntry.COLUMN_MAX_PRESSURE)), 0.001);
+        assertEquals(1.265, cursor.getDouble(
+                cursor.getColumnIndex(WeatherStatsEntry.COLUMN_MEAN_PRESSURE)), 0.001);
+        cursor.close();
+
+        // Every day: 800 on days 0, 3, 6 and 9, 321 on the other six
+        cursor = mContext.getContentResolver().query(
+                WeatherStatsEntry.buildConditionsUri(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE, Long.MAX_VALUE),
+                new String[]{WeatherEntry.COLUMN_WEATHER_ID, WeatherStatsEntry.COLUMN_DAY_COUNT},
+                null, null, null);
+        assertEquals("Error: wrong number of conditions", 2, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(321, cursor.getInt(0));
+        assertEquals(6, cursor.getInt(1));
+        assertTrue(cursor.moveToNext());
+        assertEquals(800, cursor.getInt(0));
+        assertEquals(4, cursor.getInt(1));
+        cursor.close();
+
+        // Another location has no days, but still a row of stats
+        cursor = mContext.getContentResolver().query(
+                WeatherStatsEntry.buildStatsUri("94043", fromDate, toDate),
+                new String[]{WeatherStatsEntry.COLUMN_DAY_COUNT,
+                        WeatherStatsEntry.COLUMN_LOWEST_TEMP},
+                null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(0, cursor.getInt(0));
+        assertTrue(cursor.isNull(1));
+        cursor.close();
+    }
+
+    /*
+        Pages follow on from each other by day, however they're sorted or limited.
+     */
+    public void testPagedWeatherQuery() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        int pageSize = 4;
+        String[] projection = {WeatherEntry.COLUMN_DAY};
+        Uri pageUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE, pageSize);
+        int rowsRead = 0;
+        while (pageUri != null) {
+            // A descending sort order must not break the keyset
+            Cursor page = mContext.getContentResolver().query(pageUri, projection, null, null,
+                    WeatherEntry.COLUMN_DAY + " DESC");
+            assertTrue("Error: a page held more rows than its limit",
+                    page.getCount() <= pageSize);
+            int lastDay = 0;
+            while (page.moveToNext()) {
+                assertEquals("Error: pages skipped or repeated a day",
+                        WeatherContract.getDayNumber(
+                                weatherValues[rowsRead].getAsLong(WeatherEntry.COLUMN_DATE)),
+                        page.getInt(0));
+                lastDay = page.getInt(0);
+                rowsRead++;
+            }
+            pageUri = page.getCount() == pageSize
+                    ? WeatherEntry.buildWeatherLocationPage(
+                            TestUtilities.TEST_LOCATION, lastDay, pageSize)
+                    : null;
+            page.close();
+        }
+        assertEquals("Error: paging didn't read every day",
+                BULK_INSERT_RECORDS_TO_INSERT, rowsRead);
+    }
+
+    /*
+        A write notifies the location and date it touched, and nothing it didn't: another
+        location's list and another day's detail stay quiet.
+     */
+    public void testScopedNotifications() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "94043");
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, otherLocation);
+
+        long millisecondsInADay = 1000*60*60*24;
+        TestUtilities.TestContentObserver listObserver = TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver dayObserver = TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver otherDayObserver = TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver otherLocationObserver =
+                TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true, listObserver);
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE), true, dayObserver);
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE + millisecondsInADay), true, otherDayObserver);
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("94043"), true, otherLocationObserver);
+
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationRowId));
+
+        listObserver.waitForNotificationOrFail();
+        dayObserver.waitForNotificationOrFail();
+        assertFalse("Error: another day's detail was notified", otherDayObserver.mContentChanged);
+        assertFalse("Error: another location was notified", otherLocationObserver.mContentChanged);
+
+        mContext.getContentResolver().unregisterContentObserver(listObserver);
+        mContext.getContentResolver().unregisterContentObserver(dayObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherDayObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherLocationObserver);
+        otherDayObserver.mHT.quit();
+        otherLocationObserver.mHT.quit();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void testQueryCache() {
+        if (!QueryCache.isSupported()) {
+            return;
+        }
+        long northPoleId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "94043");
+        long otherId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, otherLocation));
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(northPoleId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        // The provider itself, so we can see what kind of cursor it answers with
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+        QueryCache cache = provider.getQueryCache();
+        Uri forecastUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        String sortOrder = WeatherEntry.COLUMN_DATE + " ASC";
+        try {
+            int hits = cache.getHitCount();
+            Cursor cursor = provider.query(forecastUri, null, null, null, sortOrder);
+            assertFalse("Error: the first query can't be cached", cursor instanceof MatrixCursor);
+            cursor.close();
+
+            // The same query again is a copy, and never reaches SQLite
+            cursor = provider.query(forecastUri, null, null, null, sortOrder);
+            assertTrue("Error: the repeated query wasn't cached", cursor instanceof MatrixCursor);
+            assertEquals(hits + 1, cache.getHitCount());
+            assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+            cursor.moveToFirst();
+            for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+                TestUtilities.validateCurrentRecord("testQueryCache.  Error validating cached " + i,
+                        cursor, weatherValues[i]);
+            }
+            cursor.close();
+
+            // Writing another location's weather leaves this one's cached...
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                    createBulkInsertWeatherValues(otherId));
+            cursor = provider.query(forecastUri, null, null, null, sortOrder);
+            assertTrue("Error: another location's write dropped the cache",
+                    cursor instanceof MatrixCursor);
+            cursor.close();
+
+            // ...but changing one of its own days drops it, and the change is seen
+            ContentValues changed = new ContentValues();
+            changed.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteor shower");
+            mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, changed,
+                    WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(northPoleId)});
+            cursor = provider.query(forecastUri, null, null, null, sortOrder);
+            assertFalse("Error: the update didn't invalidate the cache",
+                    cursor instanceof MatrixCursor);
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Meteor shower",
+                    cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+            cursor.close();
+        } finally {
+            client.release();
+        }
+    }
+
+    /*
+        Every sync writes the location's city id and validators.  That leaves a cached forecast
+        that doesn't show them in place, and only drops the results that do.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void testQueryCacheSurvivesSyncBookkeeping() {
+        if (!QueryCache.isSupported()) {
+            return;
+        }
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+        Uri forecastUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        String[] forecastColumns = {
+                WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherEntry.COLUMN_MIN_TEMP,
+                LocationEntry.COLUMN_LOCATION_SETTING
+        };
+        String sortOrder = WeatherEntry.COLUMN_DATE + " ASC";
+        try {
+            provider.query(forecastUri, forecastColumns, null, null, sortOrder).close();
+            provider.query(forecastUri, null, null, null, sortOrder).close();
+
+            ContentValues bookkeeping = new ContentValues();
+            bookkeeping.put(LocationEntry.COLUMN_CITY_ID, 2643743);
+            bookkeeping.put(LocationEntry.COLUMN_ETAG, "\"5f3a\"");
+            bookkeeping.put(LocationEntry.COLUMN_LAST_MODIFIED, "Wed, 21 Oct 2015 07:28:00 GMT");
+            assertEquals(1, mContext.getContentResolver().update(LocationEntry.CONTENT_URI,
+                    bookkeeping, LocationEntry._ID + " = ?",
+                    new String[]{Long.toString(locationRowId)}));
+
+            Cursor cursor = provider.query(forecastUri, forecastColumns, null, null, sortOrder);
+            assertTrue("Error: updating the sync's bookkeeping dropped the cached forecast",
+                    cursor instanceof MatrixCursor);
+            assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+            cursor.close();
+
+            // A result that reads every column shows the old validators, so it has to go
+            cursor = provider.query(forecastUri, null, null, null, sortOrder);
+            assertFalse("Error: a result showing the old validators was kept",
+                    cursor instanceof MatrixCursor);
+            assertTrue(cursor.moveToFirst());
+            assertEquals("\"5f3a\"",
+                    cursor.getString(cursor.getColumnIndex(LocationEntry.COLUMN_ETAG)));
+            cursor.close();
+        } finally {
+            client.release();
+        }
+    }
+
+    static ContentValues createSyncMetricsValues(long startTime, long duration) {
+        ContentValues values = new ContentValues();
+        values.put(SyncMetricsEntry.COLUMN_START_TIME, startTime);
+        values.put(SyncMetricsEntry.COLUMN_DURATION, duration);
+        values.put(SyncMetricsEntry.COLUMN_CONNECT, 40);
+        values.put(SyncMetricsEntry.COLUMN_DOWNLOAD, 120);
+        values.put(SyncMetricsEntry.COLUMN_PARSE, 15);
+        values.put(SyncMetricsEntry.COLUMN_COMMIT, 8);
+        values.put(SyncMetricsEntry.COLUMN_NOTIFY, 0);
+        values.put(SyncMetricsEntry.COLUMN_WEAR, 3);
+        values.put(SyncMetricsEntry.COLUMN_COMPRESSED_BYTES, 1800);
+        values.put(SyncMetricsEntry.COLUMN_UNCOMPRESSED_BYTES, 6400);
+        values.put(SyncMetricsEntry.COLUMN_LOCATIONS, 1);
+        values.put(SyncMetricsEntry.COLUMN_ERRORS, 0);
+        return values;
+    }
+
+    public void testSyncMetricsWindow() {
+        // The table is append-only through the provider, so start it empty directly
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        db.delete(SyncMetricsEntry.TABLE_NAME, null, null);
+        db.close();
+
+        int numSyncs = SyncMetricsEntry.MAX_ROWS + 5;
+        for (int i = 0; i < numSyncs; i++) {
+            // Durations 1..numSyncs, newest last
+            mContext.getContentResolver().insert(SyncMetricsEntry.CONTENT_URI,
+                    createSyncMetricsValues(TestUtilities.TEST_DATE + i, i + 1));
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(SyncMetricsEntry.CONTENT_URI,
+                new String[]{SyncMetricsEntry.COLUMN_START_TIME}, null, null,
+                SyncMetricsEntry.COLUMN_START_TIME + " ASC");
+        assertEquals("Error: the window kept the wrong number of syncs",
+                SyncMetricsEntry.MAX_ROWS, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: the oldest syncs should have been dropped",
+                TestUtilities.TEST_DATE + 5, cursor.getLong(0));
+        cursor.close();
+
+        // Durations left are 6..105
+        assertEquals(55, SyncMetrics.getPercentile(mContext, SyncMetricsEntry.COLUMN_DURATION, 50));
+        assertEquals(100, SyncMetrics.getPercentile(mContext, SyncMetricsEntry.COLUMN_DURATION, 95));
+
+        try {
+            mContext.getContentResolver().delete(SyncMetricsEntry.CONTENT_URI, null, null);
+            fail("Sync metrics must not be deletable through the provider");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    /*
+        Each call is counted once under its URI and operation, in one bucket of each histogram.
+     */
+    public void testDiagnostics() {
+        mContext.getContentResolver().delete(DiagnosticsEntry.CONTENT_URI, null, null);
+
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        for (int i = 0; i < 3; i++) {
+            mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                    null, null, null, null).close();
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(DiagnosticsEntry.CONTENT_URI,
+                null, null, null, null);
+        int found = 0;
+        while (cursor.moveToNext()) {
+            String path = cursor.getString(cursor.getColumnIndex(DiagnosticsEntry.COLUMN_PATH));
+            String operation =
+                    cursor.getString(cursor.getColumnIndex(DiagnosticsEntry.COLUMN_OPERATION));
+            long calls = cursor.getLong(cursor.getColumnIndex(DiagnosticsEntry.COLUMN_CALLS));
+            long rows = cursor.getLong(cursor.getColumnIndex(DiagnosticsEntry.COLUMN_ROWS));
+            if (path.equals(WeatherContract.PATH_LOCATION)) {
+                assertEquals(DiagnosticsEntry.OPERATION_INSERT, operation);
+                assertEquals(1, calls);
+                assertEquals(1, rows);
+                found++;
+            } else if (path.equals(WeatherContract.PATH_WEATHER)) {
+                assertEquals(DiagnosticsEntry.OPERATION_BULK_INSERT, operation);
+                assertEquals(1, calls);
+                assertEquals(BULK_INSERT_RECORDS_TO_INSERT, rows);
+                found++;
+            } else if (path.equals(WeatherContract.PATH_WEATHER + "/*")) {
+                assertEquals(DiagnosticsEntry.OPERATION_QUERY, operation);
+                assertEquals(3, calls);
+                assertEquals(3 * BULK_INSERT_RECORDS_TO_INSERT, rows);
+                found++;
+            }
+
+            long latencyCalls = 0;
+            for (int i = 0; i <= DiagnosticsEntry.LATENCY_BUCKET_MICROS.length; i++) {
+                latencyCalls += cursor.getLong(
+                        cursor.getColumnIndex(DiagnosticsEntry.getLatencyColumn(i)));
+            }
+            long rowCalls = 0;
+            for (int i = 0; i <= DiagnosticsEntry.ROW_BUCKETS.length; i++) {
+                rowCalls += cursor.getLong(
+                        cursor.getColumnIndex(DiagnosticsEntry.getRowsColumn(i)));
+            }
+            assertEquals("Error: a latency histogram lost calls", calls, latencyCalls);
+            assertEquals("Error: a row count histogram lost calls", calls, rowCalls);
+        }
+        cursor.close();
+        assertEquals("Error: a call wasn't counted", 3, found);
+
+        // The reset is counted once it's done, and is all that's left
+        mContext.getContentResolver().delete(DiagnosticsEntry.CONTENT_URI, null, null);
+        cursor = mContext.getContentResolver().query(DiagnosticsEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: the reset kept some counts", 1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(WeatherContract.PATH_DIAGNOSTICS, cursor.getString(
+                cursor.getColumnIndex(DiagnosticsEntry.COLUMN_PATH)));
+        assertEquals(DiagnosticsEntry.OPERATION_DELETE, cursor.getString(
+                cursor.getColumnIndex(DiagnosticsEntry.COLUMN_OPERATION)));
+        cursor.close();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void testSlowQueryLogging() {
+        // Every query is slow, so each is run and logged with its plan
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_SLOW_QUERY_MILLIS, "0", null);
+        assertEquals(0, result.getLong(WeatherContract.EXTRA_SLOW_QUERY_MILLIS));
+        result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_SLOW_QUERY_MILLIS, "1", null);
+        assertEquals(1, result.getLong(WeatherContract.EXTRA_SLOW_QUERY_MILLIS));
+        try {
+            long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                    LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                    createBulkInsertWeatherValues(locationRowId));
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocationWithStartDate(
+                            TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                    null, null, null, null);
+            assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+            cursor.close();
+        } finally {
+            mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_SLOW_QUERY_MILLIS, "0", null);
+        }
+    }
 }
@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+    Audits the query plan of every query the app runs through each of the provider's URIs,
+    against a year of forecasts for a hundred locations.  A query that scans a whole table
+    fails, unless it reads every row by design; a forecast query that sorts its days in a
+    temporary b-tree, rather than reading them in order from the index, fails too.  Each
+    query's average time is reported to the log.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+    private static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    private static final int NUM_LOCATIONS = 100;
+    private static final int NUM_DAYS = 365;
+    private static final int NUM_RUNS = 20;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    /*
+        A query as the provider runs it for one of its URI codes.
+     */
+    private static class AuditedQuery {
+        final String name;
+        final int uriCode;
+        final String sql;
+        final String[] args;
+        // Why this query may read the whole table, or null if it mustn't
+        String scanReason;
+        boolean sortsByDay;
+
+        AuditedQuery(String name, int uriCode, String sql, String... args) {
+            this.name = name;
+            this.uriCode = uriCode;
+            this.sql = sql;
+            this.args = args;
+        }
+
+        AuditedQuery allowScan(String reason) {
+            scanReason = reason;
+            return this;
+        }
+
+        AuditedQuery sortedByDay() {
+            sortsByDay = true;
+            return this;
+        }
+    }
+
+    private SQLiteDatabase mDb;
+    private String mLocationSetting;
+    private String mLocationId;
+    private String mDay;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        ContentValues[] locations = new ContentValues[NUM_LOCATIONS];
+        for (int i = 0; i < NUM_LOCATIONS; i++) {
+            locations[i] = TestUtilities.createNorthPoleLocationValues();
+            locations[i].put(LocationEntry._ID, i + 1);
+            locations[i].put(LocationEntry.COLUMN_LOCATION_SETTING, "location-" + i);
+        }
+        mContext.getContentResolver().bulkInsert(LocationEntry.CONTENT_URI, locations);
+
+        ContentValues[] weather = new ContentValues[NUM_LOCATIONS * NUM_DAYS];
+        for (int i = 0; i < NUM_LOCATIONS; i++) {
+            for (int day = 0; day < NUM_DAYS; day++) {
+                ContentValues values = TestUtilities.createWeatherValues(i + 1);
+                values.put(WeatherEntry.COLUMN_DATE,
+                        TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+                weather[i * NUM_DAYS + day] = values;
+            }
+        }
+        assertEquals(weather.length,
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weather));
+
+        // A location and a day from the middle of the data
+        mLocationSetting = "location-" + NUM_LOCATIONS / 2;
+        mLocationId = Long.toString(NUM_LOCATIONS / 2 + 1);
+        mDay = Integer.toString(WeatherContract.getDayNumber(
+                TestUtilities.TEST_DATE + NUM_DAYS / 2 * DAY_IN_MILLIS));
+
+        mDb = new WeatherDbHelper(mContext).getReadableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String buildJoinQuery(String selection, String sortOrder) {
+        return WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, selection, null, null, null, sortOrder, null);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String buildAggregateQuery(SQLiteQueryBuilder builder, String groupBy,
+                                              String sortOrder) {
+        return builder.buildQuery(null, WeatherProvider.sLocationSettingDayRangeSelection,
+                null, groupBy, null, sortOrder, null);
+    }
+
+    /*
+        Every query the app makes, by the URI it goes through.
+     */
+    private List<AuditedQuery> getAppQueries() {
+        String byDay = WeatherEntry.COLUMN_DAY + " ASC";
+        List<AuditedQuery> queries = new ArrayList<AuditedQuery>();
+
+        // The forecast list
+        queries.add(new AuditedQuery("forecast from day", WeatherProvider.WEATHER_WITH_LOCATION,
+                buildJoinQuery(WeatherProvider.sLocationSettingWithStartDaySelection, byDay),
+                mLocationSetting, mDay).sortedByDay());
+        queries.add(new AuditedQuery("forecast", WeatherProvider.WEATHER_WITH_LOCATION,
+                buildJoinQuery(WeatherProvider.sLocationSettingSelection, byDay),
+                mLocationSetting).sortedByDay());
+        // The forecast list's later pages; the limit doesn't change the plan
+        queries.add(new AuditedQuery("forecast page", WeatherProvider.WEATHER_WITH_LOCATION,
+                buildJoinQuery(WeatherProvider.sLocationSettingAfterDaySelection,
+                        WeatherProvider.sPagedSortOrder),
+                mLocationSetting, mDay).sortedByDay());
+        // The detail view, the notification and the watch
+        queries.add(new AuditedQuery("day", WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE,
+                buildJoinQuery(WeatherProvider.sLocationSettingAndDaySelection, null),
+                mLocationSetting, mDay));
+
+        // Summaries of a range of days, and the sync counting the days ahead
+        queries.add(new AuditedQuery("stats", WeatherProvider.WEATHER_STATS,
+                buildAggregateQuery(WeatherProvider.sWeatherStatsQueryBuilder, null, null),
+                mLocationSetting, mDay, Integer.toString(Integer.MAX_VALUE)));
+        queries.add(new AuditedQuery("conditions", WeatherProvider.WEATHER_CONDITIONS,
+                buildAggregateQuery(WeatherProvider.sWeatherConditionsQueryBuilder,
+                        WeatherEntry.COLUMN_WEATHER_ID, WeatherProvider.sConditionsSortOrder),
+                mLocationSetting, mDay, Integer.toString(Integer.MAX_VALUE)));
+
+        // The sync's diff against the stored days, and the removal of days no longer covered
+        queries.add(new AuditedQuery("stored hashes", WeatherProvider.WEATHER,
+                SQLiteQueryBuilder.buildQueryString(false, WeatherEntry.TABLE_NAME,
+                        new String[]{WeatherEntry.COLUMN_DAY, WeatherEntry.COLUMN_CONTENT_HASH},
+                        WeatherEntry.COLUMN_LOC_KEY + " = ?", null, null, null, null),
+                mLocationId));
+        queries.add(new AuditedQuery("removed days", WeatherProvider.WEATHER,
+                SQLiteQueryBuilder.buildQueryString(false, WeatherEntry.TABLE_NAME,
+                        new String[]{WeatherEntry._ID},
+                        WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DAY +
+                                " IN (?,?)", null, null, null, null),
+                mLocationId, mDay, mDay));
+        queries.add(new AuditedQuery("days to archive", WeatherProvider.WEATHER,
+                SQLiteQueryBuilder.buildQueryString(false, WeatherEntry.TABLE_NAME,
+                        ArchiveEntry.COLUMNS, WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                                WeatherEntry.COLUMN_DAY + " < ?", null, null, null, null),
+                mLocationId, mDay));
+        queries.add(new AuditedQuery("art prefetch", WeatherProvider.WEATHER,
+                SQLiteQueryBuilder.buildQueryString(false, WeatherEntry.TABLE_NAME,
+                        new String[]{WeatherEntry.COLUMN_WEATHER_ID}, null, null, null, null, null))
+                .allowScan("every stored condition's art, from the charging-only deferred job"));
+
+        // The sync resolving and updating a location, and finding its validators
+        queries.add(new AuditedQuery("location by setting", WeatherProvider.LOCATION,
+                SQLiteQueryBuilder.buildQueryString(false, LocationEntry.TABLE_NAME,
+                        new String[]{LocationEntry.COLUMN_ETAG, LocationEntry.COLUMN_LAST_MODIFIED},
+                        LocationEntry.COLUMN_LOCATION_SETTING + " = ?", null, null, null, null),
+                mLocationSetting));
+        queries.add(new AuditedQuery("location by id", WeatherProvider.LOCATION,
+                SQLiteQueryBuilder.buildQueryString(false, LocationEntry.TABLE_NAME,
+                        null, LocationEntry._ID + " = ?", null, null, null, null),
+                mLocationId));
+        queries.add(new AuditedQuery("locations to sync", WeatherProvider.LOCATION,
+                SQLiteQueryBuilder.buildQueryString(false, LocationEntry.TABLE_NAME,
+                        new String[]{LocationEntry.COLUMN_LOCATION_SETTING}, null, null, null,
+                        null, null))
+                .allowScan("every saved location is synced"));
+        queries.add(new AuditedQuery("locations by city id", WeatherProvider.LOCATION,
+                SQLiteQueryBuilder.buildQueryString(false, LocationEntry.TABLE_NAME,
+                        new String[]{LocationEntry.COLUMN_LOCATION_SETTING,
+                                LocationEntry.COLUMN_CITY_ID},
+                        LocationEntry.COLUMN_CITY_ID + " IS NOT NULL", null, null, null, null))
+                .allowScan("every saved location is synced, in groups by city id"));
+        queries.add(new AuditedQuery("upsert lookup", WeatherProvider.LOCATION_UPSERT,
+                "SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME +
+                        " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                mLocationSetting));
+
+        // Reading a range of the archive, and merging days into a month of it
+        queries.add(new AuditedQuery("archive range", WeatherProvider.ARCHIVE_WITH_LOCATION,
+                SQLiteQueryBuilder.buildQueryString(false, ArchiveEntry.TABLE_NAME,
+                        new String[]{ArchiveEntry.COLUMN_MONTH, ArchiveEntry.COLUMN_DATA},
+                        WeatherProvider.sArchiveRangeSelection, null, null,
+                        ArchiveEntry.COLUMN_MONTH + " ASC", null),
+                mLocationId, "24000", "24012").sortedByDay());
+        queries.add(new AuditedQuery("archive block", WeatherProvider.ARCHIVE,
+                SQLiteQueryBuilder.buildQueryString(false, ArchiveEntry.TABLE_NAME,
+                        new String[]{ArchiveEntry.COLUMN_DATA},
+                        WeatherProvider.sArchiveBlockSelection, null, null, null, null),
+                mLocationId, "24000"));
+
+        queries.add(new AuditedQuery("metrics percentile", WeatherProvider.SYNC_METRICS,
+                SQLiteQueryBuilder.buildQueryString(false, SyncMetricsEntry.TABLE_NAME,
+                        new String[]{SyncMetricsEntry.COLUMN_DURATION}, null, null, null,
+                        SyncMetricsEntry.COLUMN_DURATION + " ASC", null))
+                .allowScan("the window is at most " + SyncMetricsEntry.MAX_ROWS + " rows"));
+        return queries;
+    }
+
+    /*
+        The plan's detail lines.  From SQLite 3.7.6 a full scan reads "SCAN TABLE t" (or
+        "SCAN t" from 3.36), with any index it walks named after; before that, "TABLE t" with
+        no index named.
+     */
+    private List<String> explain(AuditedQuery query) {
+        List<String> details = new ArrayList<String>();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + query.sql, query.args);
+        int detailIndex = cursor.getColumnIndex("detail");
+        while (cursor.moveToNext()) {
+            details.add(cursor.getString(detailIndex));
+        }
+        cursor.close();
+        return details;
+    }
+
+    private static boolean isFullScan(String detail) {
+        if (detail.startsWith("SCAN ")) {
+            // Walking a whole index is a full scan too
+            return !detail.startsWith("SCAN CONSTANT ROW");
+        }
+        return detail.startsWith("TABLE ")
+                && !detail.contains("WITH INDEX") && !detail.contains("PRIMARY KEY");
+    }
+
+    public void testQueryPlans() {
+        List<AuditedQuery> queries = getAppQueries();
+        Set<Integer> auditedCodes = new HashSet<Integer>();
+        for (AuditedQuery query : queries) {
+            auditedCodes.add(query.uriCode);
+            List<String> details = explain(query);
+            assertFalse(query.name + ": no plan", details.isEmpty());
+            for (String detail : details) {
+                Log.d(LOG_TAG, query.name + ": " + detail);
+                if (query.scanReason == null) {
+                    assertFalse(query.name + " scans a whole table: " + detail,
+                            isFullScan(detail));
+                }
+                if (query.sortsByDay) {
+                    assertFalse(query.name + " sorts outside the index: " + detail,
+                            detail.contains("TEMP B-TREE"));
+                }
+            }
+        }
+
+        // Every URI the provider answers from the database has had its queries audited; the
+        // diagnostics are answered from memory
+        int[] uriCodes = {WeatherProvider.WEATHER, WeatherProvider.WEATHER_WITH_LOCATION,
+                WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE, WeatherProvider.WEATHER_STATS,
+                WeatherProvider.WEATHER_CONDITIONS, WeatherProvider.LOCATION,
+                WeatherProvider.LOCATION_UPSERT, WeatherProvider.SYNC_METRICS,
+                WeatherProvider.ARCHIVE, WeatherProvider.ARCHIVE_WITH_LOCATION};
+        for (int uriCode : uriCodes) {
+            assertTrue("No query audited for URI code " + uriCode, auditedCodes.contains(uriCode));
+        }
+    }
+
+    public void testQueryTimes() {
+        for (AuditedQuery query : getAppQueries()) {
+            int rows = 0;
+            long start = System.nanoTime();
+            for (int run = 0; run < NUM_RUNS; run++) {
+                Cursor cursor = mDb.rawQuery(query.sql, query.args);
+                // Fill the whole window, as a list scrolled to the end would
+                cursor.moveToLast();
+                rows = cursor.getCount();
+                cursor.close();
+            }
+            long micros = (System.nanoTime() - start) / 1000 / NUM_RUNS;
+            Log.i(LOG_TAG, query.name + ": " + rows + " rows in " + micros + "us" +
+                    (query.scanReason != null ? " (full scan: " + query.scanReason + ")" : ""));
+        }
+    }
+}
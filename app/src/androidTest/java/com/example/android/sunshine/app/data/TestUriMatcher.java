@@ -34,8 +34,19 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_QUERY);
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    private static final Uri TEST_WEATHER_STATS = WeatherContract.WeatherStatsEntry.buildStatsUri(LOCATION_QUERY, TEST_DATE, TEST_DATE);
+    private static final Uri TEST_WEATHER_CONDITIONS_DIR = WeatherContract.WeatherStatsEntry.buildConditionsUri(LOCATION_QUERY, TEST_DATE, Long.MAX_VALUE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/location/upsert"
+    private static final Uri TEST_LOCATION_UPSERT = WeatherContract.LocationEntry.UPSERT_URI;
+    // content://com.example.android.sunshine.app/sync_metrics"
+    private static final Uri TEST_SYNC_METRICS_DIR = WeatherContract.SyncMetricsEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/archive"
+    private static final Uri TEST_ARCHIVE_DIR = WeatherContract.ArchiveEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/diagnostics"
+    private static final Uri TEST_DIAGNOSTICS_DIR = WeatherContract.DiagnosticsEntry.CONTENT_URI;
+    private static final Uri TEST_ARCHIVE_WITH_LOCATION_DIR = WeatherContract.ArchiveEntry.buildArchiveLocationWithRange(LOCATION_QUERY, TEST_DATE, TEST_DATE);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -51,7 +62,21 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR), WeatherProvider.WEATHER_WITH_LOCATION);
         assertEquals("Error: The WEATHER WITH LOCATION AND DATE URI was matched incorrectly.",
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The WEATHER STATS URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_STATS), WeatherProvider.WEATHER_STATS);
+        assertEquals("Error: The WEATHER CONDITIONS URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_CONDITIONS_DIR), WeatherProvider.WEATHER_CONDITIONS);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The LOCATION UPSERT URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_UPSERT), WeatherProvider.LOCATION_UPSERT);
+        assertEquals("Error: The SYNC METRICS URI was matched incorrectly.",
+                testMatcher.match(TEST_SYNC_METRICS_DIR), WeatherProvider.SYNC_METRICS);
+        assertEquals("Error: The ARCHIVE URI was matched incorrectly.",
+                testMatcher.match(TEST_ARCHIVE_DIR), WeatherProvider.ARCHIVE);
+        assertEquals("Error: The ARCHIVE WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_ARCHIVE_WITH_LOCATION_DIR), WeatherProvider.ARCHIVE_WITH_LOCATION);
+        assertEquals("Error: The DIAGNOSTICS URI was matched incorrectly.",
+                testMatcher.match(TEST_DIAGNOSTICS_DIR), WeatherProvider.DIAGNOSTICS);
     }
 }
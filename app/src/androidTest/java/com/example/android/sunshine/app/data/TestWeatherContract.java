@@ -18,6 +18,8 @@ package com.example.android.sunshine.app.data;
 import android.net.Uri;
 import android.test.AndroidTestCase;
 
+import java.util.TimeZone;
+
 /*
     Students: This is NOT a complete test for the WeatherContract --- just for the functions
     that we expect you to write.
@@ -42,4 +44,31 @@ public class TestWeatherContract extends AndroidTestCase {
                 locationUri.toString(),
                 "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
     }
+
+    /*
+        A day number and the start of its day go back and forth, in zones either side of UTC
+        and across a change to daylight saving time.
+     */
+    public void testDayNumbers() {
+        long millisecondsInADay = 1000*60*60*24;
+        String[] zoneIds = {"UTC", "America/Los_Angeles", "Asia/Tokyo", "Europe/London"};
+        for (String zoneId : zoneIds) {
+            TimeZone zone = TimeZone.getTimeZone(zoneId);
+            // A week either side of March 10th, 2015
+            long date = 1425945600000L - 7 * millisecondsInADay;
+            for (int i = 0; i < 14; i++, date += millisecondsInADay) {
+                int day = WeatherContract.getDayNumber(date, zone);
+                long start = WeatherContract.getStartOfDay(day, zone);
+                assertEquals("Error: the start of the day is on another day in " + zoneId,
+                        day, WeatherContract.getDayNumber(start, zone));
+                assertEquals("Error: the day before starts on the same day in " + zoneId,
+                        day - 1, WeatherContract.getDayNumber(start - 1, zone));
+            }
+        }
+
+        Uri dayUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                TEST_WEATHER_LOCATION, TEST_WEATHER_DATE);
+        assertEquals(WeatherContract.getDayNumber(TEST_WEATHER_DATE),
+                WeatherContract.WeatherEntry.getDayFromUri(dayUri));
+    }
 }
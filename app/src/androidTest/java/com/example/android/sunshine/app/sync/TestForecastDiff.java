@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TestForecastDiff extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    private static final long FIRST_DATE = 1419033600000L;  // December 20th, 2014
+    private static final int FIRST_DAY = 2457012;
+
+    /*
+        Parses a canned forecast and stamps its rows the way the sync adapter does.
+     */
+    private static List<ContentValues> forecastDays(int numDays, int seed) throws Exception {
+        List<ContentValues> days =
+                ForecastJsonParser.parse(TestPayloads.dailyForecast(numDays, seed)).days;
+        for (int i = 0; i < days.size(); i++) {
+            ContentValues day = days.get(i);
+            day.put(WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH,
+                    ForecastDiff.contentHash(day));
+            day.put(WeatherContract.WeatherEntry.COLUMN_DAY, FIRST_DAY + i);
+            day.put(WeatherContract.WeatherEntry.COLUMN_DATE, FIRST_DATE + i * DAY_IN_MILLIS);
+        }
+        return days;
+    }
+
+    private static Map<Integer, Long> stored(List<ContentValues> days) {
+        Map<Integer, Long> hashes = new HashMap<Integer, Long>();
+        for (ContentValues day : days) {
+            hashes.put(day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_DAY),
+                    day.getAsLong(WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH));
+        }
+        return hashes;
+    }
+
+    public void testHashIgnoresDayAndLocation() throws Exception {
+        ContentValues day = forecastDays(1, 0).get(0);
+        long hash = ForecastDiff.contentHash(day);
+        day.put(WeatherContract.WeatherEntry.COLUMN_DAY, FIRST_DAY + 1);
+        day.put(WeatherContract.WeatherEntry.COLUMN_DATE, FIRST_DATE + DAY_IN_MILLIS);
+        day.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, 42L);
+        assertEquals(hash, ForecastDiff.contentHash(day));
+
+        day.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 99.0);
+        assertFalse("A changed temperature must change the hash",
+                hash == ForecastDiff.contentHash(day));
+    }
+
+    public void testUnchangedForecastIsEmpty() throws Exception {
+        ForecastDiff diff = ForecastDiff.compute(stored(forecastDays(14, 0)), forecastDays(14, 0));
+        assertTrue(diff.isEmpty());
+        assertEquals(14, diff.unchanged);
+    }
+
+    public void testOnlyChangedDaysAreWritten() throws Exception {
+        List<ContentValues> incoming = forecastDays(14, 0);
+        ContentValues changed = incoming.get(3);
+        changed.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, -40.0);
+        changed.put(WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH,
+                ForecastDiff.contentHash(changed));
+
+        ForecastDiff diff = ForecastDiff.compute(stored(forecastDays(14, 0)), incoming);
+        assertEquals(1, diff.upserts.size());
+        assertSame(changed, diff.upserts.get(0));
+        assertEquals(13, diff.unchanged);
+        assertTrue(diff.removedDays.isEmpty());
+    }
+
+    public void testNewAndRemovedDays() throws Exception {
+        // Stored: days 0-6.  Incoming: days 1-7, as the day after would bring.
+        Map<Integer, Long> stored = stored(forecastDays(7, 0));
+        List<ContentValues> incoming = forecastDays(8, 0);
+        incoming.remove(0);
+
+        ForecastDiff diff = ForecastDiff.compute(stored, incoming);
+        assertEquals(1, diff.upserts.size());
+        assertEquals(FIRST_DAY + 7, (int) diff.upserts.get(0)
+                .getAsInteger(WeatherContract.WeatherEntry.COLUMN_DAY));
+        assertEquals(1, diff.removedDays.size());
+        assertEquals(FIRST_DAY, (int) diff.removedDays.get(0));
+        assertEquals(6, diff.unchanged);
+    }
+
+    public void testRowWithoutHashIsRewritten() throws Exception {
+        Map<Integer, Long> stored = stored(forecastDays(14, 0));
+        stored.put(FIRST_DAY, null);
+        ForecastDiff diff = ForecastDiff.compute(stored, forecastDays(14, 0));
+        assertEquals(1, diff.upserts.size());
+        assertEquals(13, diff.unchanged);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastJsonParser.class.getSimpleName();
+
+    private static final int BENCHMARK_ITERATIONS = 200;
+
+    private static InputStream stream(String payload) throws IOException {
+        return new ByteArrayInputStream(payload.getBytes("UTF-8"));
+    }
+
+    /*
+        The streaming parser must produce exactly the rows the org.json parser did.
+     */
+    public void testStreamMatchesTree() throws Exception {
+        String payload = TestPayloads.dailyForecast(14);
+
+        ForecastJsonParser.Forecast tree = ForecastJsonParser.parse(payload);
+        ForecastJsonParser.Forecast streamed = ForecastJsonParser.parseStream(stream(payload));
+
+        assertEquals(HttpURLConnection.HTTP_OK, streamed.messageCode);
+        assertEquals(TestPayloads.TEST_CITY_NAME, streamed.cityName);
+        assertEquals(TestPayloads.TEST_CITY_LAT, streamed.cityLatitude, 1e-9);
+        assertEquals(TestPayloads.TEST_CITY_LON, streamed.cityLongitude, 1e-9);
+        assertEquals(14, streamed.days.size());
+        assertEquals(tree.days.size(), streamed.days.size());
+        for (int i = 0; i < tree.days.size(); i++) {
+            ContentValues expected = tree.days.get(i);
+            ContentValues actual = streamed.days.get(i);
+            assertEquals("Day " + i + " has different columns", expected.size(), actual.size());
+            for (String key : expected.keySet()) {
+                assertEquals("Day " + i + " column " + key,
+                        expected.getAsString(key), actual.getAsString(key));
+            }
+        }
+    }
+
+    public void testErrorCode() throws Exception {
+        ForecastJsonParser.Forecast forecast =
+                ForecastJsonParser.parseStream(stream(TestPayloads.NOT_FOUND));
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, forecast.messageCode);
+        assertTrue(forecast.days.isEmpty());
+    }
+
+    public void testMalformedIsJsonException() throws Exception {
+        try {
+            ForecastJsonParser.parseStream(stream("{\"cod\":\"200\",\"list\":[{\"pressure\":\"x\"}]}"));
+            fail("Expected a JSONException for a non-numeric pressure");
+        } catch (JSONException expected) {
+        }
+        try {
+            ForecastJsonParser.parseStream(stream("{\"cod\":\"200\",\"list\":[]}"));
+            fail("Expected a JSONException for a missing city");
+        } catch (JSONException expected) {
+        }
+    }
+
+    public void testEmptyIsIOException() throws Exception {
+        try {
+            ForecastJsonParser.parseStream(stream(""));
+            fail("Expected an IOException for an empty response");
+        } catch (IOException expected) {
+        }
+    }
+
+    /*
+        Compares the org.json path (read into a String, build the tree) against the streaming
+        parser on the same recorded payload.  Timings are logged, not asserted.
+     */
+    public void testParseBenchmark() throws Exception {
+        String payload = TestPayloads.dailyForecast(14);
+        byte[] bytes = payload.getBytes("UTF-8");
+
+        // warm up both paths
+        for (int i = 0; i < 20; i++) {
+            ForecastJsonParser.parse(new String(bytes, "UTF-8"));
+            ForecastJsonParser.parseStream(new ByteArrayInputStream(bytes));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            ForecastJsonParser.parse(new String(bytes, "UTF-8"));
+        }
+        long treeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            ForecastJsonParser.parseStream(new ByteArrayInputStream(bytes));
+        }
+        long streamNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, "Parsed " + bytes.length + " bytes x " + BENCHMARK_ITERATIONS +
+                ": org.json " + (treeNanos / BENCHMARK_ITERATIONS / 1000) + "us/op, " +
+                "JsonReader " + (streamNanos / BENCHMARK_ITERATIONS / 1000) + "us/op");
+    }
+}
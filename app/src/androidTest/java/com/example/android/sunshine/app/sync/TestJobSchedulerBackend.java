@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.Context;
+import android.os.Build;
+import android.test.AndroidTestCase;
+
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class TestJobSchedulerBackend extends AndroidTestCase {
+
+    private static final long INTERVAL = SyncScheduler.MIN_INTERVAL;
+
+    private JobScheduler getJobScheduler() {
+        return (JobScheduler) mContext.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+    }
+
+    private JobInfo getPendingJob(int jobId) {
+        for (JobInfo job : getJobScheduler().getAllPendingJobs()) {
+            if (job.getId() == jobId) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            getJobScheduler().cancel(JobSchedulerBackend.JOB_ID_DEFERRED);
+            // Put the real periodic sync back the way the app would
+            new JobSchedulerBackend().schedulePeriodicSync(mContext,
+                    SyncScheduler.getScheduledInterval(mContext) > 0
+                            ? SyncScheduler.getScheduledInterval(mContext) : INTERVAL * 6,
+                    INTERVAL * 2);
+        }
+        super.tearDown();
+    }
+
+    public void testPeriodicSyncIsScheduled() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        JobSchedulerBackend backend = new JobSchedulerBackend();
+        getJobScheduler().cancel(JobSchedulerBackend.JOB_ID_SYNC);
+        assertFalse(backend.isPeriodicSyncScheduled(mContext));
+
+        backend.schedulePeriodicSync(mContext, INTERVAL, INTERVAL / 3);
+        assertTrue(backend.isPeriodicSyncScheduled(mContext));
+
+        JobInfo job = getPendingJob(JobSchedulerBackend.JOB_ID_SYNC);
+        assertTrue(job.isPeriodic());
+        assertEquals(INTERVAL * 1000, job.getIntervalMillis());
+        assertEquals(JobInfo.NETWORK_TYPE_ANY, job.getNetworkType());
+        assertFalse("The sync itself must not wait for a charger", job.isRequireCharging());
+    }
+
+    public void testDeferredWorkWaitsForUnmeteredAndCharging() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        new JobSchedulerBackend().scheduleDeferredWork(mContext);
+
+        JobInfo job = getPendingJob(JobSchedulerBackend.JOB_ID_DEFERRED);
+        assertNotNull(job);
+        assertEquals(JobInfo.NETWORK_TYPE_UNMETERED, job.getNetworkType());
+        assertTrue(job.isRequireCharging());
+        assertFalse(job.isPeriodic());
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.ReplayHandler;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestOpenWeatherMapSource extends AndroidTestCase {
+
+    private static final String LOCATION = "94043";
+    private static final String API_KEY = "test-key";
+
+    private StubHttpServer mServer;
+    private ReplayHandler mHandler;
+    private OpenWeatherMapSource mSource;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mHandler = new ReplayHandler("q").record(LOCATION, TestPayloads.dailyForecast(14));
+        mServer = new StubHttpServer(mHandler);
+        mSource = new OpenWeatherMapSource(new WeatherHttpClient(),
+                mServer.getUrl("/forecast/daily").toString(), "", API_KEY);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testFetchForecast() throws Exception {
+        WeatherSource.Result result = mSource.fetchForecast(LOCATION, null, null, new SyncTrace());
+        assertFalse(result.notModified);
+        assertEquals(14, result.forecast.days.size());
+        assertEquals(TestPayloads.TEST_CITY_ID, result.forecast.cityId);
+
+        List<StubHttpServer.Request> requests = mServer.getRequests();
+        assertEquals(1, requests.size());
+        Uri uri = Uri.parse(requests.get(0).path);
+        assertEquals("/forecast/daily", uri.getPath());
+        assertEquals(LOCATION, uri.getQueryParameter("q"));
+        assertEquals("14", uri.getQueryParameter("cnt"));
+        assertEquals("metric", uri.getQueryParameter("units"));
+        assertEquals(API_KEY, uri.getQueryParameter("APPID"));
+    }
+
+    public void testUnknownLocationIsParsed() throws Exception {
+        WeatherSource.Result result = mSource.fetchForecast("nowhere", null, null, new SyncTrace());
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, result.forecast.messageCode);
+    }
+
+    public void testServerErrorIsIOException() throws Exception {
+        mHandler.setErrorRate(1, 0);
+        try {
+            mSource.fetchForecast(LOCATION, null, null, new SyncTrace());
+            fail("A 503 must not come back as a forecast");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(1, mHandler.getErrorCount());
+    }
+
+    public void testGroupsNeedAGroupUrl() throws Exception {
+        assertFalse(mSource.supportsGroups());
+
+        StubHttpServer groupServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                return new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                        .body(TestPayloads.groupForecast(14, 5859699, 2643743));
+            }
+        });
+        try {
+            OpenWeatherMapSource source = new OpenWeatherMapSource(new WeatherHttpClient(),
+                    groupServer.getUrl("/forecast/daily").toString(),
+                    groupServer.getUrl("/group").toString(), API_KEY);
+            assertTrue(source.supportsGroups());
+
+            List<ForecastJsonParser.Forecast> forecasts =
+                    source.fetchGroup(Arrays.asList(5859699L, 2643743L), new SyncTrace());
+            assertEquals(2, forecasts.size());
+            assertEquals("5859699,2643743", Uri.parse(groupServer.getRequests().get(0).path)
+                    .getQueryParameter("id"));
+        } finally {
+            groupServer.shutdown();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.util.Locale;
+
+/*
+    Canned OpenWeatherMap responses for the sync tests.  The daily forecast follows the layout
+    of a recorded forecast/daily response (city first, then cod/message/cnt, then the list), with
+    the values varied per day so that every row is distinct.
+ */
+public class TestPayloads {
+    static final String TEST_CITY_NAME = "North Pole";
+    static final double TEST_CITY_LAT = 64.7488;
+    static final double TEST_CITY_LON = -147.353;
+    static final long TEST_CITY_ID = 5859699;
+
+    static final String NOT_FOUND = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+
+    static String dailyForecast(int numDays) {
+        return dailyForecast(numDays, 0);
+    }
+
+    /**
+     * @param numDays number of elements in the "list" array
+     * @param seed shifts every value, so two payloads with different seeds differ on every day
+     */
+    static String dailyForecast(int numDays, int seed) {
+        return dailyForecast(TEST_CITY_ID, numDays, seed);
+    }
+
+    /**
+     * @param cityId the id reported in the "city" object
+     */
+    static String dailyForecast(long cityId, int numDays, int seed) {
+        StringBuilder sb = new StringBuilder(512 + numDays * 400);
+        sb.append("{\"city\":{\"id\":").append(cityId)
+                .append(",\"name\":\"").append(TEST_CITY_NAME)
+                .append("\",\"coord\":{\"lon\":").append(TEST_CITY_LON)
+                .append(",\"lat\":").append(TEST_CITY_LAT)
+                .append("},\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0122,\"cnt\":").append(numDays)
+                .append(",\"list\":[");
+        long dt = 1419033600L;
+        for (int i = 0; i < numDays; i++, dt += 86400) {
+            if (i > 0) sb.append(',');
+            sb.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":%.2f,\"min\":%.2f,\"max\":%.2f,\"night\":%.2f," +
+                            "\"eve\":%.2f,\"morn\":%.2f},\"pressure\":%.2f,\"humidity\":%d," +
+                            "\"weather\":[{\"id\":%d,\"main\":\"%s\",\"description\":\"%s\"," +
+                            "\"icon\":\"10d\"}],\"speed\":%.2f,\"deg\":%d,\"clouds\":%d," +
+                            "\"rain\":%.2f}",
+                    dt,
+                    -10.5 + i + seed, -20.25 + i + seed, -5.75 + i + seed, -18.0 + i, -9.0 + i,
+                    -19.0 + i,
+                    1013.5 + i + seed, 60 + (i + seed) % 40,
+                    (i + seed) % 2 == 0 ? 600 : 800,
+                    (i + seed) % 2 == 0 ? "Snow" : "Clear",
+                    (i + seed) % 2 == 0 ? "light snow" : "sky is clear",
+                    2.5 + 0.1 * i + seed, (30 * i + seed) % 360, i % 100, 0.25 * i));
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    /**
+     * A group response holding one daily forecast per city id, each seeded by its position.
+     */
+    static String groupForecast(int numDays, long... cityIds) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"cnt\":").append(cityIds.length).append(",\"list\":[");
+        for (int i = 0; i < cityIds.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(dailyForecast(cityIds[i], numDays, i));
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.ReplayHandler;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+    Fetches and parses a batch of locations from a local stub server the way the sync does,
+    with a fixed server latency and a seeded share of server errors, and reports throughput and
+    latency to the log.  Runs offline, and fails if the fetches stop overlapping or any
+    response goes missing.
+ */
+public class TestSyncBenchmark extends AndroidTestCase {
+    private static final String LOG_TAG = TestSyncBenchmark.class.getSimpleName();
+
+    private static final int NUM_LOCATIONS = 40;
+    private static final int CONCURRENCY = 4;
+    private static final long LATENCY_MILLIS = 50;
+    private static final double ERROR_RATE = 0.1;
+    private static final long ERROR_SEED = 42;
+
+    private StubHttpServer mServer;
+    private ReplayHandler mHandler;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mHandler = new ReplayHandler("q")
+                .setLatency(LATENCY_MILLIS)
+                .setErrorRate(ERROR_RATE, ERROR_SEED);
+        for (int i = 0; i < NUM_LOCATIONS; i++) {
+            mHandler.record(locationName(i),
+                    TestPayloads.dailyForecast(TestPayloads.TEST_CITY_ID + i, 14, i));
+        }
+        mServer = new StubHttpServer(mHandler);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private static String locationName(int i) {
+        return "city-" + i;
+    }
+
+    public void testFetchThroughput() throws Exception {
+        // One attempt per request, so every injected error surfaces exactly once
+        final WeatherHttpClient httpClient = new WeatherHttpClient();
+        final WeatherSource source = new OpenWeatherMapSource(httpClient,
+                mServer.getUrl("/forecast/daily").toString(), "", "benchmark");
+        final SyncTrace trace = new SyncTrace();
+
+        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY);
+        List<Future<Long>> fetches = new ArrayList<Future<Long>>(NUM_LOCATIONS);
+        long start = System.nanoTime();
+        for (int i = 0; i < NUM_LOCATIONS; i++) {
+            final String location = locationName(i);
+            fetches.add(executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    long fetchStart = System.nanoTime();
+                    WeatherSource.Result result = source.fetchForecast(location, null, null, trace);
+                    assertEquals(14, result.forecast.days.size());
+                    return System.nanoTime() - fetchStart;
+                }
+            }));
+        }
+
+        List<Long> latencies = new ArrayList<Long>(NUM_LOCATIONS);
+        int failed = 0;
+        for (Future<Long> fetch : fetches) {
+            try {
+                latencies.add(fetch.get());
+            } catch (ExecutionException e) {
+                assertTrue("Only injected server errors may fail",
+                        e.getCause() instanceof IOException);
+                failed++;
+            }
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        executor.shutdown();
+
+        assertEquals(mHandler.getErrorCount(), failed);
+        assertEquals(NUM_LOCATIONS, latencies.size() + failed);
+
+        Collections.sort(latencies);
+        long p50 = latencies.get(latencies.size() / 2) / 1000000;
+        long p90 = latencies.get(latencies.size() * 9 / 10) / 1000000;
+        Log.i(LOG_TAG, NUM_LOCATIONS + " locations in " + elapsedMillis + "ms (" +
+                (NUM_LOCATIONS * 1000L / Math.max(1, elapsedMillis)) + "/s), p50 " + p50 +
+                "ms, p90 " + p90 + "ms, " + failed + " errors, " +
+                httpClient.getCompressedBytes() + " bytes; connect " +
+                trace.getMillis(SyncTrace.PHASE_CONNECT) + "ms, download " +
+                trace.getMillis(SyncTrace.PHASE_DOWNLOAD) + "ms, parse " +
+                trace.getMillis(SyncTrace.PHASE_PARSE) + "ms");
+
+        assertTrue("Every fetch waits out the server latency", p50 >= LATENCY_MILLIS);
+        assertTrue("Fetches must overlap: " + elapsedMillis + "ms",
+                elapsedMillis < NUM_LOCATIONS * LATENCY_MILLIS);
+    }
+}
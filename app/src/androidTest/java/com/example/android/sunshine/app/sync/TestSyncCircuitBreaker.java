@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.Random;
+
+public class TestSyncCircuitBreaker extends AndroidTestCase {
+
+    private static final long NOW = 1419033600000L;
+
+    private void clearBreaker() {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .remove(mContext.getString(R.string.pref_sync_failures_key))
+                .remove(mContext.getString(R.string.pref_sync_retry_at_key))
+                .commit();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearBreaker();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearBreaker();
+        super.tearDown();
+    }
+
+    public void testBackoffGrowsWithJitter() {
+        ExponentialBackoff backoff = new ExponentialBackoff(1000, 8000, new Random(42));
+        long[] ceilings = {1000, 2000, 4000, 8000, 8000};
+        for (int attempt = 1; attempt <= ceilings.length; attempt++) {
+            long delay = backoff.getDelayMillis(attempt);
+            long ceiling = ceilings[attempt - 1];
+            assertTrue("Delay " + delay + " below half of " + ceiling, delay >= ceiling / 2);
+            assertTrue("Delay " + delay + " above " + ceiling, delay <= ceiling);
+        }
+        // Must not overflow however long the outage goes on
+        assertTrue(backoff.getDelayMillis(100) <= 8000);
+    }
+
+    public void testOpensAfterThreshold() {
+        SyncCircuitBreaker breaker = new SyncCircuitBreaker(mContext,
+                new ExponentialBackoff(60000, 60000, new Random(42)));
+
+        for (int i = 1; i < SyncCircuitBreaker.FAILURE_THRESHOLD; i++) {
+            assertEquals(0, breaker.recordFailure(NOW));
+            assertEquals(SyncCircuitBreaker.STATE_CLOSED, breaker.getState(NOW));
+        }
+        long retryAt = breaker.recordFailure(NOW);
+        assertTrue("Retry time should be in the future", retryAt > NOW);
+        assertEquals(retryAt, breaker.getRetryAtMillis());
+        assertEquals(SyncCircuitBreaker.STATE_OPEN, breaker.getState(NOW));
+
+        // The state must survive a new instance, as it would a new process
+        SyncCircuitBreaker restored = new SyncCircuitBreaker(mContext);
+        assertEquals(SyncCircuitBreaker.STATE_OPEN, restored.getState(NOW));
+        assertEquals(SyncCircuitBreaker.STATE_HALF_OPEN, restored.getState(retryAt));
+    }
+
+    public void testHalfOpenTrial() {
+        SyncCircuitBreaker breaker = new SyncCircuitBreaker(mContext,
+                new ExponentialBackoff(60000, 10 * 60000, new Random(42)));
+        for (int i = 0; i < SyncCircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.recordFailure(NOW);
+        }
+        long firstRetryAt = breaker.getRetryAtMillis();
+
+        // A failed trial opens the breaker again, for longer
+        long secondRetryAt = breaker.recordFailure(firstRetryAt);
+        assertEquals(SyncCircuitBreaker.STATE_OPEN, breaker.getState(firstRetryAt));
+        assertTrue(secondRetryAt - firstRetryAt > 60000 / 2);
+
+        // A successful one closes it
+        breaker.recordSuccess();
+        assertEquals(SyncCircuitBreaker.STATE_CLOSED, breaker.getState(secondRetryAt));
+        assertEquals(0, breaker.getConsecutiveFailures());
+        assertTrue(breaker.allowRequest());
+    }
+}
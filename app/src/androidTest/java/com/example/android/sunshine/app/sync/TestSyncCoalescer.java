@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class TestSyncCoalescer extends AndroidTestCase {
+
+    private static final String LOCATION = "94043";
+    private static final String OTHER_LOCATION = "London, UK";
+
+    /*
+        Records each completion signal it gets.
+     */
+    static class RecordingListener implements SyncCoalescer.Listener {
+        final List<Boolean> mResults = new ArrayList<Boolean>();
+
+        @Override
+        public void onSyncFinished(boolean success) {
+            mResults.add(success);
+        }
+    }
+
+    private TestSyncScheduler.FakeClock mClock;
+    private int mSyncRequests;
+    private SyncCoalescer mCoalescer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mClock = new TestSyncScheduler.FakeClock();
+        mSyncRequests = 0;
+        mCoalescer = new SyncCoalescer(mClock, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, new SyncCoalescer.Trigger() {
+            @Override
+            public void requestSync(Context context) {
+                mSyncRequests++;
+            }
+        });
+    }
+
+    public void testRequestsMergeIntoPendingSync() {
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        assertTrue(mCoalescer.requestSync(mContext, LOCATION, first));
+        assertFalse(mCoalescer.requestSync(mContext, LOCATION, second));
+        assertEquals(1, mSyncRequests);
+
+        assertTrue(mCoalescer.onSyncStarted(LOCATION));
+        // Joining a running sync doesn't request another either
+        RecordingListener third = new RecordingListener();
+        assertFalse(mCoalescer.requestSync(mContext, LOCATION, third));
+        assertEquals(1, mSyncRequests);
+        assertTrue(first.mResults.isEmpty());
+
+        mCoalescer.onSyncFinished(LOCATION, true);
+        assertEquals(1, first.mResults.size());
+        assertEquals(1, second.mResults.size());
+        assertEquals(1, third.mResults.size());
+        assertTrue(first.mResults.get(0));
+    }
+
+    public void testFreshSyncAnswersRightAway() {
+        mCoalescer.requestSync(mContext, LOCATION, null);
+        mCoalescer.onSyncStarted(LOCATION);
+        mCoalescer.onSyncFinished(LOCATION, true);
+
+        RecordingListener listener = new RecordingListener();
+        mClock.advance(SyncCoalescer.FRESHNESS_WINDOW_MILLIS - 1);
+        assertFalse(mCoalescer.requestSync(mContext, LOCATION, listener));
+        assertEquals(1, mSyncRequests);
+        assertEquals(1, listener.mResults.size());
+
+        // ...and a sync triggered some other way, such as the periodic one, is turned away
+        assertFalse(mCoalescer.onSyncStarted(LOCATION));
+
+        mClock.advance(1);
+        assertTrue(mCoalescer.requestSync(mContext, LOCATION, null));
+        assertEquals(2, mSyncRequests);
+    }
+
+    public void testFailedSyncIsNotFresh() {
+        RecordingListener listener = new RecordingListener();
+        mCoalescer.requestSync(mContext, LOCATION, listener);
+        mCoalescer.onSyncStarted(LOCATION);
+        mCoalescer.onSyncFinished(LOCATION, false);
+        assertEquals(1, listener.mResults.size());
+        assertFalse(listener.mResults.get(0));
+
+        assertTrue(mCoalescer.requestSync(mContext, LOCATION, null));
+        assertEquals(2, mSyncRequests);
+    }
+
+    public void testNewLocationIsNotMerged() {
+        RecordingListener oldLocation = new RecordingListener();
+        RecordingListener newLocation = new RecordingListener();
+        mCoalescer.requestSync(mContext, LOCATION, oldLocation);
+        mCoalescer.onSyncStarted(LOCATION);
+        assertTrue(mCoalescer.requestSync(mContext, OTHER_LOCATION, newLocation));
+        assertEquals(2, mSyncRequests);
+
+        // Only the waiters for the location synced are told
+        mCoalescer.onSyncFinished(LOCATION, true);
+        assertEquals(1, oldLocation.mResults.size());
+        assertTrue(newLocation.mResults.isEmpty());
+
+        assertTrue(mCoalescer.onSyncStarted(OTHER_LOCATION));
+        mCoalescer.onSyncFinished(OTHER_LOCATION, true);
+        assertEquals(1, newLocation.mResults.size());
+    }
+
+    public void testStalledRequestIsRepeated() {
+        mCoalescer.requestSync(mContext, LOCATION, null);
+        mClock.advance(SyncCoalescer.REQUEST_TIMEOUT_MILLIS);
+        assertTrue(mCoalescer.requestSync(mContext, LOCATION, null));
+        assertEquals(2, mSyncRequests);
+    }
+}
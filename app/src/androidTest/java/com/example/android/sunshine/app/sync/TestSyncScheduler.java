@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestSyncScheduler extends AndroidTestCase {
+
+    private static final long BASE_INTERVAL = 3 * 60 * 60;
+    private static final long MINUTE_IN_MILLIS = 60 * 1000;
+
+    /*
+        A clock that only moves when told to.
+     */
+    static class FakeClock implements Clock {
+        long mNow = 1419033600000L;
+
+        @Override
+        public long currentTimeMillis() {
+            return mNow;
+        }
+
+        void advance(long millis) {
+            mNow += millis;
+        }
+    }
+
+    private FakeClock mClock;
+    private SyncScheduler mScheduler;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mClock = new FakeClock();
+        mScheduler = new SyncScheduler(BASE_INTERVAL, mClock)
+                .addPolicy(new SyncScheduler.ChangeRatePolicy())
+                .addPolicy(new SyncScheduler.NetworkPolicy())
+                .addPolicy(new SyncScheduler.ChargingPolicy())
+                .addPolicy(new SyncScheduler.ForecastHorizonPolicy())
+                .addPolicy(new SyncScheduler.ActivityPolicy());
+    }
+
+    /*
+        A sync on wifi, not charging, with two weeks stored, nobody looking, and a few days
+        changed: every policy leaves the base interval alone.
+     */
+    private static SyncSignals neutralSignals() {
+        SyncSignals signals = new SyncSignals();
+        signals.receivedDays = 14;
+        signals.changedDays = 3;
+        signals.daysAhead = 14;
+        signals.unmetered = true;
+        return signals;
+    }
+
+    public void testNoPoliciesKeepsBase() {
+        SyncScheduler scheduler = new SyncScheduler(BASE_INTERVAL, mClock);
+        assertEquals(BASE_INTERVAL, scheduler.getNextIntervalSeconds(new SyncSignals()));
+    }
+
+    public void testNeutralSignalsKeepBase() {
+        assertEquals(BASE_INTERVAL, mScheduler.getNextIntervalSeconds(neutralSignals()));
+    }
+
+    public void testUnchangedForecastBacksOff() {
+        SyncSignals signals = neutralSignals();
+        signals.changedDays = 0;
+        assertEquals(2 * BASE_INTERVAL, mScheduler.getNextIntervalSeconds(signals));
+
+        // ...and further on a metered network
+        signals.unmetered = false;
+        assertEquals(3 * BASE_INTERVAL, mScheduler.getNextIntervalSeconds(signals));
+
+        // ...but never beyond the maximum
+        SyncScheduler slow = new SyncScheduler(SyncScheduler.MAX_INTERVAL, mClock)
+                .addPolicy(new SyncScheduler.ChangeRatePolicy());
+        assertEquals(SyncScheduler.MAX_INTERVAL, slow.getNextIntervalSeconds(signals));
+    }
+
+    public void testChangingForecastSyncsSooner() {
+        SyncSignals signals = neutralSignals();
+        signals.changedDays = 14;
+        assertEquals(BASE_INTERVAL / 2, mScheduler.getNextIntervalSeconds(signals));
+
+        signals.charging = true;
+        assertEquals(BASE_INTERVAL / 3, mScheduler.getNextIntervalSeconds(signals));
+    }
+
+    public void testShortHorizonCapsInterval() {
+        SyncSignals signals = neutralSignals();
+        signals.changedDays = 0;
+        signals.daysAhead = 1;
+        assertEquals(SyncScheduler.ACTIVE_INTERVAL, mScheduler.getNextIntervalSeconds(signals));
+    }
+
+    public void testActivityWindowFollowsClock() {
+        SyncSignals signals = neutralSignals();
+        signals.lastActiveMillis = mClock.currentTimeMillis();
+        assertEquals(SyncScheduler.ACTIVE_INTERVAL, mScheduler.getNextIntervalSeconds(signals));
+
+        mClock.advance(SyncScheduler.ACTIVE_WINDOW_MILLIS - MINUTE_IN_MILLIS);
+        assertEquals(SyncScheduler.ACTIVE_INTERVAL, mScheduler.getNextIntervalSeconds(signals));
+
+        mClock.advance(2 * MINUTE_IN_MILLIS);
+        assertEquals(BASE_INTERVAL, mScheduler.getNextIntervalSeconds(signals));
+    }
+
+    public void testNeverBelowMinimum() {
+        SyncScheduler scheduler = new SyncScheduler(BASE_INTERVAL, mClock)
+                .addPolicy(new SyncPolicy() {
+                    @Override
+                    public long adjustInterval(long intervalSeconds, SyncSignals signals,
+                                               long nowMillis) {
+                        return 0;
+                    }
+                });
+        assertEquals(SyncScheduler.MIN_INTERVAL,
+                scheduler.getNextIntervalSeconds(neutralSignals()));
+    }
+}
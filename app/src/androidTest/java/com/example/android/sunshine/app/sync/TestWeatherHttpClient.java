@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+public class TestWeatherHttpClient extends AndroidTestCase {
+
+    private static final String ETAG = "\"forecast-v1\"";
+    private static final String LAST_MODIFIED = "Sat, 20 Dec 2014 00:00:00 GMT";
+
+    private static final String GZIP_PATH = "/forecast.gz";
+    private static final String GROUP_PATH = "/group";
+    private static final String FAILED_GROUP_PATH = "/group-failed";
+
+    private static final String FLAKY_PATH = "/flaky";
+    // Server errors the flaky path answers with before it starts serving the forecast
+    private static final int FLAKY_FAILURES = 2;
+
+    private static final long[] GROUP_CITY_IDS = {5859699, 2643743, 5128581};
+
+    private StubHttpServer mServer;
+    private final AtomicInteger mFlakyRequests = new AtomicInteger();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Behaves like a server that honours validators: 304 whenever the ETag matches
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                if (FLAKY_PATH.equals(request.path)) {
+                    if (mFlakyRequests.incrementAndGet() <= FLAKY_FAILURES) {
+                        return new StubHttpServer.Response(HttpURLConnection.HTTP_UNAVAILABLE);
+                    }
+                    return new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                            .body(TestPayloads.dailyForecast(14));
+                }
+                if (request.path.startsWith(FAILED_GROUP_PATH)) {
+                    // What a server too busy for the whole group answers with
+                    return new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                            .body("{\"cod\":\"503\",\"message\":\"try again later\"}");
+                }
+                if (request.path.startsWith(GROUP_PATH)) {
+                    return new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                            .body(TestPayloads.groupForecast(14, GROUP_CITY_IDS));
+                }
+                if (GZIP_PATH.equals(request.path)) {
+                    return new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                            .header("Content-Encoding", WeatherHttpClient.ENCODING_GZIP)
+                            .body(gzip(TestPayloads.dailyForecast(14)));
+                }
+                if (ETAG.equals(request.getHeader(WeatherHttpClient.HEADER_IF_NONE_MATCH))) {
+                    return new StubHttpServer.Response(HttpURLConnection.HTTP_NOT_MODIFIED)
+                            .header(WeatherHttpClient.HEADER_ETAG, ETAG);
+                }
+                return new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                        .header(WeatherHttpClient.HEADER_ETAG, ETAG)
+                        .header(WeatherHttpClient.HEADER_LAST_MODIFIED, LAST_MODIFIED)
+                        .body(TestPayloads.dailyForecast(14));
+            }
+        });
+    }
+
+    private static byte[] gzip(String body) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            GZIPOutputStream out = new GZIPOutputStream(bytes);
+            out.write(body.getBytes("UTF-8"));
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testConditionalGet() throws Exception {
+        WeatherHttpClient client = new WeatherHttpClient();
+
+        // First sync: nothing stored yet, so the request is unconditional
+        WeatherHttpClient.Response response = client.get(mServer.getUrl("/forecast"), null, null);
+        assertEquals(HttpURLConnection.HTTP_OK, response.code);
+        assertFalse(response.isNotModified());
+        assertEquals(ETAG, response.etag);
+        assertEquals(LAST_MODIFIED, response.lastModified);
+        ForecastJsonParser.Forecast forecast = ForecastJsonParser.parse(response.getBody());
+        assertEquals(14, forecast.days.size());
+        response.close();
+
+        // Second sync: the stored validators come back as a 304 with no body
+        response = client.get(mServer.getUrl("/forecast"), ETAG, LAST_MODIFIED);
+        assertTrue("Expected a 304 for a matching ETag", response.isNotModified());
+        response.close();
+
+        List<StubHttpServer.Request> requests = mServer.getRequests();
+        assertEquals(2, requests.size());
+        assertNull(requests.get(0).getHeader(WeatherHttpClient.HEADER_IF_NONE_MATCH));
+        assertEquals(ETAG, requests.get(1).getHeader(WeatherHttpClient.HEADER_IF_NONE_MATCH));
+        assertEquals(LAST_MODIFIED,
+                requests.get(1).getHeader(WeatherHttpClient.HEADER_IF_MODIFIED_SINCE));
+    }
+
+    public void testGzipBodyIsCounted() throws Exception {
+        WeatherHttpClient client = new WeatherHttpClient();
+        String payload = TestPayloads.dailyForecast(14);
+
+        WeatherHttpClient.Response response = client.get(mServer.getUrl(GZIP_PATH), null, null);
+        ForecastJsonParser.Forecast forecast = ForecastJsonParser.parse(response.getBody());
+        response.close();
+
+        assertEquals(14, forecast.days.size());
+        assertEquals(WeatherHttpClient.ENCODING_GZIP,
+                mServer.getRequests().get(0).getHeader(WeatherHttpClient.HEADER_ACCEPT_ENCODING));
+        assertEquals(gzip(payload).length, client.getCompressedBytes());
+        assertEquals(payload.getBytes("UTF-8").length, client.getUncompressedBytes());
+
+        client.resetCounters();
+        assertEquals(0, client.getCompressedBytes());
+    }
+
+    public void testGroupResponseFansOutByCityId() throws Exception {
+        WeatherHttpClient client = new WeatherHttpClient();
+
+        WeatherHttpClient.Response response =
+                client.get(mServer.getUrl(GROUP_PATH + "?id=5859699,2643743,5128581"), null, null);
+        List<ForecastJsonParser.Forecast> forecasts =
+                ForecastJsonParser.parseGroup(response.getBody());
+        response.close();
+
+        // One request, one forecast per city, each matching its own single-city payload
+        assertEquals(1, mServer.getRequests().size());
+        assertEquals(GROUP_CITY_IDS.length, forecasts.size());
+        for (int i = 0; i < GROUP_CITY_IDS.length; i++) {
+            ForecastJsonParser.Forecast forecast = forecasts.get(i);
+            assertEquals(GROUP_CITY_IDS[i], forecast.cityId);
+            ForecastJsonParser.Forecast single = ForecastJsonParser.parse(
+                    TestPayloads.dailyForecast(GROUP_CITY_IDS[i], 14, i));
+            assertEquals(single.days, forecast.days);
+        }
+    }
+
+    public void testFailedGroupIsIOException() throws Exception {
+        WeatherHttpClient client = new WeatherHttpClient();
+
+        WeatherHttpClient.Response response =
+                client.get(mServer.getUrl(FAILED_GROUP_PATH + "?id=5859699"), null, null);
+        try {
+            ForecastJsonParser.parseGroup(response.getBody());
+            fail("A group-level error should send the caller back to per-city requests");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            response.close();
+        }
+    }
+
+    public void testRetriesServerErrors() throws Exception {
+        // Short delays so the test doesn't sit out a real backoff
+        WeatherHttpClient client = new WeatherHttpClient(FLAKY_FAILURES + 1,
+                new ExponentialBackoff(10, 40, new Random(42)));
+
+        WeatherHttpClient.Response response = client.get(mServer.getUrl(FLAKY_PATH), null, null);
+        assertEquals(HttpURLConnection.HTTP_OK, response.code);
+        assertEquals(14, ForecastJsonParser.parse(response.getBody()).days.size());
+        response.close();
+        assertEquals(FLAKY_FAILURES + 1, mServer.getRequests().size());
+    }
+
+    public void testGivesUpAfterMaxAttempts() throws Exception {
+        WeatherHttpClient client = new WeatherHttpClient(FLAKY_FAILURES,
+                new ExponentialBackoff(10, 40, new Random(42)));
+
+        // Out of attempts: the last server error is handed back for the caller to report
+        WeatherHttpClient.Response response = client.get(mServer.getUrl(FLAKY_PATH), null, null);
+        assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, response.code);
+        response.close();
+        assertEquals(FLAKY_FAILURES, mServer.getRequests().size());
+    }
+}
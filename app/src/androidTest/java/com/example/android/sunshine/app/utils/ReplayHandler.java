@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import android.net.Uri;
+
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A {@link StubHttpServer.Handler} that replays recorded responses, keyed by the value of one
+ * query parameter, such as the "q" of a forecast request.  Every response can be delayed by a
+ * fixed latency, and a share of them replaced by server errors.  The errors are drawn from a
+ * seeded Random, so a run of the same requests fails the same number of times.
+ */
+public class ReplayHandler implements StubHttpServer.Handler {
+
+    private final String mKeyParam;
+    private final Map<String, byte[]> mRecordings = new HashMap<String, byte[]>();
+    private long mLatencyMillis;
+    private double mErrorRate;
+    private Random mRandom = new Random(0);
+    private int mErrors;
+
+    /**
+     * @param keyParam the query parameter whose value picks the recording to replay
+     */
+    public ReplayHandler(String keyParam) {
+        mKeyParam = keyParam;
+    }
+
+    public synchronized ReplayHandler record(String key, String body) {
+        try {
+            mRecordings.put(key, body.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        return this;
+    }
+
+    /**
+     * Delays every response, errors included, by the given time.
+     */
+    public synchronized ReplayHandler setLatency(long millis) {
+        mLatencyMillis = millis;
+        return this;
+    }
+
+    /**
+     * Answers the given share of requests, between 0 and 1, with a 503.
+     */
+    public synchronized ReplayHandler setErrorRate(double errorRate, long seed) {
+        mErrorRate = errorRate;
+        mRandom = new Random(seed);
+        return this;
+    }
+
+    /**
+     * @return how many requests have been answered with an injected error.
+     */
+    public synchronized int getErrorCount() {
+        return mErrors;
+    }
+
+    @Override
+    public StubHttpServer.Response handle(StubHttpServer.Request request) {
+        String key = Uri.parse(request.path).getQueryParameter(mKeyParam);
+        long latency;
+        boolean fail;
+        byte[] body;
+        synchronized (this) {
+            latency = mLatencyMillis;
+            fail = mRandom.nextDouble() < mErrorRate;
+            if (fail) {
+                mErrors++;
+            }
+            body = key == null ? null : mRecordings.get(key);
+        }
+
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (fail) {
+            return new StubHttpServer.Response(503).body("{\"cod\":\"503\"}");
+        }
+        if (body == null) {
+            // What OpenWeatherMap answers for a place it doesn't know: the error is in the body
+            return new StubHttpServer.Response(200)
+                    .body("{\"cod\":\"404\",\"message\":\"city not found\"}");
+        }
+        return new StubHttpServer.Response(200)
+                .header("Content-Type", "application/json; charset=utf-8")
+                .body(body);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A minimal HTTP/1.1 server bound to localhost, for testing the sync code without the network.
+ * Each connection carries exactly one request and is closed after the response.  Connections
+ * are served concurrently, so a handler that takes its time doesn't hold up the others.
+ */
+public class StubHttpServer {
+
+    /**
+     * A request as seen by the server.  Header names are lower-cased.
+     */
+    public static class Request {
+        public final String method;
+        public final String path;
+        public final Map<String, String> headers = new HashMap<String, String>();
+
+        Request(String method, String path) {
+            this.method = method;
+            this.path = path;
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    public static class Response {
+        public final int code;
+        public final Map<String, String> headers = new LinkedHashMap<String, String>();
+        public byte[] body = new byte[0];
+
+        public Response(int code) {
+            this.code = code;
+        }
+
+        public Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        public Response body(byte[] body) {
+            this.body = body;
+            return this;
+        }
+
+        public Response body(String body) {
+            try {
+                this.body = body.getBytes("UTF-8");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return this;
+        }
+    }
+
+    public interface Handler {
+        Response handle(Request request);
+    }
+
+    private final ServerSocket mServerSocket;
+    private final Handler mHandler;
+    private final List<Request> mRequests = new ArrayList<Request>();
+    private final Thread mThread;
+    private final ExecutorService mWorkers = Executors.newCachedThreadPool();
+
+    public StubHttpServer(Handler handler) throws IOException {
+        mHandler = handler;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "StubHttpServer");
+        mThread.start();
+    }
+
+    public URL getUrl(String path) throws IOException {
+        return new URL("http://127.0.0.1:" + mServerSocket.getLocalPort() + path);
+    }
+
+    public synchronized List<Request> getRequests() {
+        return new ArrayList<Request>(mRequests);
+    }
+
+    public void shutdown() throws IOException {
+        mServerSocket.close();
+        mWorkers.shutdown();
+        try {
+            mThread.join(5000);
+            mWorkers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                // closed by shutdown()
+                return;
+            }
+            mWorkers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException e) {
+                        // the client went away; nothing to do
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            // ignore
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+        String requestLine = in.readLine();
+        if (requestLine == null) return;
+        String[] parts = requestLine.split(" ");
+        Request request = new Request(parts[0], parts.length > 1 ? parts[1] : "/");
+        String line;
+        while ((line = in.readLine()) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                request.headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                        line.substring(colon + 1).trim());
+            }
+        }
+        synchronized (this) {
+            mRequests.add(request);
+        }
+
+        Response response = mHandler.handle(request);
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.code).append(" Stub\r\n");
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("Content-Length: ").append(response.body.length).append("\r\n");
+        head.append("Connection: close\r\n\r\n");
+
+        OutputStream out = socket.getOutputStream();
+        out.write(head.toString().getBytes("ISO-8859-1"));
+        out.write(response.body);
+        out.flush();
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.Toolbar;
+import android.view.View;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
+import android.widget.TextView;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.DiagnosticsEntry;
+
+/**
+ * Debug builds only: shows how long the provider's calls have taken, and how many rows they
+ * touched, for each URI and operation, and turns logging slow queries with their plans on and
+ * off.
+ */
+public class DiagnosticsActivity extends AppCompatActivity
+        implements LoaderManager.LoaderCallbacks<Cursor> {
+
+    private static final int DIAGNOSTICS_LOADER = 0;
+
+    // A frame at 60fps; a query any slower would drop one if it ran on the UI thread
+    private static final long SLOW_QUERY_MILLIS = 16;
+
+    private TextView mText;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_diagnostics);
+        setSupportActionBar((Toolbar) findViewById(R.id.toolbar));
+        mText = (TextView) findViewById(R.id.diagnostics_text);
+
+        CheckBox slowQueries = (CheckBox) findViewById(R.id.diagnostics_slow_queries);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // The provider can only be told through ContentResolver.call
+            slowQueries.setEnabled(false);
+        } else {
+            slowQueries.setChecked(setSlowQueryMillis(null) != 0);
+            slowQueries.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+                @Override
+                public void onCheckedChanged(CompoundButton button, boolean isChecked) {
+                    setSlowQueryMillis(isChecked ? Long.toString(SLOW_QUERY_MILLIS) : "0");
+                }
+            });
+        }
+
+        findViewById(R.id.diagnostics_refresh).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                getSupportLoaderManager().restartLoader(DIAGNOSTICS_LOADER, null,
+                        DiagnosticsActivity.this);
+            }
+        });
+        findViewById(R.id.diagnostics_reset).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                // Only zeroes counters in memory, and notifies the loader to reload
+                getContentResolver().delete(DiagnosticsEntry.CONTENT_URI, null, null);
+            }
+        });
+
+        getSupportLoaderManager().initLoader(DIAGNOSTICS_LOADER, null, this);
+    }
+
+    /**
+     * @param millis the new threshold, or null to leave it as it is
+     * @return the provider's slow query threshold, in milliseconds.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private long setSlowQueryMillis(String millis) {
+        Bundle result = getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_SLOW_QUERY_MILLIS, millis, null);
+        return result.getLong(WeatherContract.EXTRA_SLOW_QUERY_MILLIS);
+    }
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        return new CursorLoader(this, DiagnosticsEntry.CONTENT_URI, null, null, null, null);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        mText.setText(data.getCount() == 0
+                ? getString(R.string.diagnostics_empty) : formatDiagnostics(data));
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        mText.setText(null);
+    }
+
+    private static String formatDiagnostics(Cursor data) {
+        StringBuilder text = new StringBuilder();
+        data.moveToPosition(-1);
+        while (data.moveToNext()) {
+            long calls = data.getLong(data.getColumnIndex(DiagnosticsEntry.COLUMN_CALLS));
+            long totalMicros =
+                    data.getLong(data.getColumnIndex(DiagnosticsEntry.COLUMN_TOTAL_MICROS));
+            text.append(data.getString(data.getColumnIndex(DiagnosticsEntry.COLUMN_PATH)))
+                    .append(' ')
+                    .append(data.getString(data.getColumnIndex(DiagnosticsEntry.COLUMN_OPERATION)))
+                    .append("\n  calls ").append(calls)
+                    .append("  mean ").append(formatMicros(totalMicros / calls))
+                    .append("  max ").append(formatMicros(data.getLong(
+                            data.getColumnIndex(DiagnosticsEntry.COLUMN_MAX_MICROS))))
+                    .append("  rows ").append(data.getLong(
+                            data.getColumnIndex(DiagnosticsEntry.COLUMN_ROWS)))
+                    .append("\n  time ");
+            long[] latencyBounds = DiagnosticsEntry.LATENCY_BUCKET_MICROS;
+            for (int i = 0; i <= latencyBounds.length; i++) {
+                text.append(i < latencyBounds.length
+                        ? "<=" + formatMicros(latencyBounds[i])
+                        : ">" + formatMicros(latencyBounds[i - 1]))
+                        .append(':')
+                        .append(data.getLong(data.getColumnIndex(
+                                DiagnosticsEntry.getLatencyColumn(i))))
+                        .append(' ');
+            }
+            text.append("\n  rows ");
+            long[] rowBounds = DiagnosticsEntry.ROW_BUCKETS;
+            for (int i = 0; i <= rowBounds.length; i++) {
+                text.append(i < rowBounds.length ? "<=" + rowBounds[i] : ">" + rowBounds[i - 1])
+                        .append(':')
+                        .append(data.getLong(data.getColumnIndex(
+                                DiagnosticsEntry.getRowsColumn(i))))
+                        .append(' ');
+            }
+            text.append("\n\n");
+        }
+        return text.toString();
+    }
+
+    private static String formatMicros(long micros) {
+        return micros < 1000 ? micros + "us" : (micros / 100) / 10.0 + "ms";
+    }
+}
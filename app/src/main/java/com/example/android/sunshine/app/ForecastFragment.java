@@ -28,11 +28,11 @@ import android.preference.PreferenceManager;
 import android.support.design.widget.AppBarLayout;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.text.format.DateUtils;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -46,6 +46,7 @@ import android.widget.AbsListView;
 import android.widget.TextView;
 
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.SyncCircuitBreaker;
 
 /**
  * Encapsulates fetching the forecast and displaying it as a
@@ -66,6 +67,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private static final String SELECTED_KEY = "selected_position";
 
     private static final int FORECAST_LOADER = 0;
+    // How close to the end of the list the next page starts loading
+    private static final int PAGE_PREFETCH_DISTANCE = ForecastPageLoader.PAGE_SIZE / 2;
     // For the forecast view we're showing only a small subset of the stored data.
     // Specify the columns we need.
     private static final String[] FORECAST_COLUMNS = {
@@ -83,7 +86,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
             WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
             WeatherContract.LocationEntry.COLUMN_COORD_LAT,
-            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            WeatherContract.WeatherEntry.COLUMN_DAY
     };
 
     // These indices are tied to FORECAST_COLUMNS.  If FORECAST_COLUMNS changes, these
@@ -97,6 +101,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     static final int COL_WEATHER_CONDITION_ID = 6;
     static final int COL_COORD_LAT = 7;
     static final int COL_COORD_LONG = 8;
+    static final int COL_WEATHER_DAY = 9;
 
     /**
      * A callback interface that all activities containing this fragment must
@@ -190,11 +195,11 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // use it to populate the RecyclerView it's attached to.
         mForecastAdapter = new ForecastAdapter(getActivity(), new ForecastAdapter.ForecastAdapterOnClickHandler() {
             @Override
-            public void onClick(Long date, ForecastAdapter.ForecastAdapterViewHolder vh) {
+            public void onClick(int day, ForecastAdapter.ForecastAdapterViewHolder vh) {
                 String locationSetting = Utility.getPreferredLocation(getActivity());
                 ((Callback) getActivity())
-                        .onItemSelected(WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
-                                        locationSetting, date),
+                        .onItemSelected(WeatherContract.WeatherEntry.buildWeatherLocationWithDay(
+                                        locationSetting, day),
                                 vh
                         );
                 mPosition = vh.getAdapterPosition();
@@ -204,6 +209,22 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // specify an adapter (see also next example)
         mRecyclerView.setAdapter(mForecastAdapter);
 
+        // Load the next page of the forecast before the list runs out
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                LinearLayoutManager layoutManager =
+                        (LinearLayoutManager) recyclerView.getLayoutManager();
+                if (dy > 0 && layoutManager.findLastVisibleItemPosition()
+                        >= mForecastAdapter.getItemCount() - PAGE_PREFETCH_DISTANCE) {
+                    Loader<Cursor> loader = getLoaderManager().getLoader(FORECAST_LOADER);
+                    if (loader instanceof ForecastPageLoader) {
+                        ((ForecastPageLoader) loader).loadNextPage();
+                    }
+                }
+            }
+        });
+
         final View parallaxView = rootView.findViewById(R.id.parallax_bar);
         if (null != parallaxView) {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
@@ -323,19 +344,13 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // To only show current and future dates, filter the query to return weather only for
         // dates after or including today.
 
-        // Sort order:  Ascending, by date.
-        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
-
+        // The forecast is loaded a page at a time, in ascending date order, as the list is
+        // scrolled.
         String locationSetting = Utility.getPreferredLocation(getActivity());
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                locationSetting, System.currentTimeMillis());
-
-        return new CursorLoader(getActivity(),
-                weatherForLocationUri,
-                FORECAST_COLUMNS,
-                null,
-                null,
-                sortOrder);
+        return new ForecastPageLoader(getActivity(),
+                locationSetting,
+                System.currentTimeMillis(),
+                FORECAST_COLUMNS);
     }
 
     @Override
@@ -410,6 +425,15 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                 @SunshineSyncAdapter.LocationStatus int location = Utility.getLocationStatus(getActivity());
                 switch (location) {
                     case SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN:
+                        // if syncs are on hold until the server recovers, say until when
+                        SyncCircuitBreaker breaker = new SyncCircuitBreaker(getActivity());
+                        if (breaker.getState() == SyncCircuitBreaker.STATE_OPEN) {
+                            tv.setText(getString(R.string.empty_forecast_list_server_down_retry,
+                                    DateUtils.formatDateTime(getActivity(),
+                                            breaker.getRetryAtMillis(),
+                                            DateUtils.FORMAT_SHOW_TIME)));
+                            return;
+                        }
                         message = R.string.empty_forecast_list_server_down;
                         break;
                     case SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID:
@@ -430,7 +454,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
-        if (key.equals(getString(R.string.pref_location_status_key))) {
+        if (key.equals(getString(R.string.pref_location_status_key))
+                || key.equals(getString(R.string.pref_sync_retry_at_key))) {
             updateEmptyView();
         }
     }
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads a location's forecast a page at a time, for the forecast list.  The first page is
+ * loaded when the loader starts and each further one when {@link #loadNextPage()} is called,
+ * as the list nears its end; each page is a keyset query for the days after the last one
+ * loaded, so it costs the same however much history is stored, and memory only grows with
+ * what has been scrolled through.  The pages are delivered together as one cursor.
+ *
+ * When the forecast changes, everything loaded so far is reloaded in one query, so the list
+ * keeps its place.
+ */
+public class ForecastPageLoader extends AsyncTaskLoader<Cursor> {
+
+    static final int PAGE_SIZE = 20;
+
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private final String mLocationSetting;
+    private final int mStartDay;
+    private final String[] mProjection;
+    private final int mDayColumn;
+
+    // The pages delivered last.  Only touched on the main thread.
+    private PagedCursor mCursor;
+    // The pages the load in progress is appending to, or null if it's reloading them
+    private volatile PagedCursor mAppendTo;
+    // How many rows a reload must load to cover what has been delivered
+    private volatile int mLoadedRows;
+
+    /**
+     * @param projection the columns to load, which must include the day number
+     */
+    public ForecastPageLoader(Context context, String locationSetting, long startDate,
+                              String[] projection) {
+        super(context);
+        mLocationSetting = locationSetting;
+        mStartDay = WeatherContract.getDayNumber(startDate);
+        mProjection = projection;
+        mDayColumn = Arrays.asList(projection).indexOf(WeatherContract.WeatherEntry.COLUMN_DAY);
+        if (mDayColumn == -1) {
+            throw new IllegalArgumentException("Forecast pages are keyed by day");
+        }
+    }
+
+    /**
+     * Starts loading the page after the last one delivered, unless a load is already under way
+     * or the last page was the end of the forecast.
+     */
+    public void loadNextPage() {
+        if (mCursor == null || !mCursor.mHasMore || mAppendTo != null || !isStarted()) {
+            return;
+        }
+        mAppendTo = mCursor;
+        forceLoad();
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        PagedCursor appendTo = mAppendTo;
+        if (appendTo != null) {
+            Cursor page = query(WeatherContract.WeatherEntry.buildWeatherLocationPage(
+                    mLocationSetting, appendTo.mLastDay, PAGE_SIZE));
+            if (page == null) {
+                return appendTo;
+            }
+            if (page.getCount() == 0) {
+                page.close();
+                return new PagedCursor(appendTo.mPages, appendTo.mLastDay, false);
+            }
+            List<Cursor> pages = new ArrayList<Cursor>(appendTo.mPages);
+            pages.add(page);
+            return new PagedCursor(pages, lastDay(page, appendTo.mLastDay),
+                    page.getCount() == PAGE_SIZE);
+        }
+
+        int limit = Math.max(PAGE_SIZE, mLoadedRows);
+        Cursor page = query(WeatherContract.WeatherEntry.buildWeatherLocationWithStartDay(
+                mLocationSetting, mStartDay, limit));
+        if (page == null) {
+            return null;
+        }
+        // An empty first page is followed by the days from the start day on
+        return new PagedCursor(Collections.singletonList(page), lastDay(page, mStartDay - 1),
+                page.getCount() == limit);
+    }
+
+    private Cursor query(Uri uri) {
+        Cursor cursor = getContext().getContentResolver().query(uri, mProjection, null, null,
+                null);
+        if (cursor != null) {
+            // Fill the window here rather than on the main thread
+            cursor.getCount();
+            cursor.registerContentObserver(mObserver);
+        }
+        return cursor;
+    }
+
+    private int lastDay(Cursor page, int ifEmpty) {
+        return page.moveToLast() ? page.getInt(mDayColumn) : ifEmpty;
+    }
+
+    @Override
+    public void deliverResult(Cursor data) {
+        PagedCursor cursor = (PagedCursor) data;
+        if (isReset()) {
+            release(cursor, null);
+            return;
+        }
+        PagedCursor old = mCursor;
+        mCursor = cursor;
+        mAppendTo = null;
+        mLoadedRows = cursor == null ? 0 : cursor.getCount();
+        if (isStarted()) {
+            super.deliverResult(cursor);
+        }
+        if (old != null && old != cursor) {
+            release(old, cursor);
+        }
+    }
+
+    @Override
+    public void onContentChanged() {
+        // Pages loaded before the change may not follow on from each other any more
+        mAppendTo = null;
+        super.onContentChanged();
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mCursor != null) {
+            deliverResult(mCursor);
+        }
+        if (takeContentChanged() || mCursor == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    public void onCanceled(Cursor data) {
+        mAppendTo = null;
+        release((PagedCursor) data, mCursor);
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        release(mCursor, null);
+        mCursor = null;
+        mAppendTo = null;
+        mLoadedRows = 0;
+    }
+
+    /**
+     * Closes the pages that aren't also pages of the cursor kept.
+     */
+    private static void release(PagedCursor released, PagedCursor kept) {
+        if (released == null) {
+            return;
+        }
+        for (Cursor page : released.mPages) {
+            if (kept == null || !kept.mPages.contains(page)) {
+                page.close();
+            }
+        }
+    }
+
+    /**
+     * The pages loaded so far, read as one cursor.  Pages are shared with the cursor the next
+     * page is appended to, so they belong to the loader, which closes them; closing this
+     * leaves them open.
+     */
+    static class PagedCursor extends AbstractCursor {
+        private final List<Cursor> mPages;
+        private final int[] mPageStarts;
+        private final int mCount;
+        private final int mLastDay;
+        private final boolean mHasMore;
+        private Cursor mPage;
+
+        PagedCursor(List<Cursor> pages, int lastDay, boolean hasMore) {
+            mPages = pages;
+            mPageStarts = new int[pages.size()];
+            int count = 0;
+            for (int i = 0; i < pages.size(); i++) {
+                mPageStarts[i] = count;
+                count += pages.get(i).getCount();
+            }
+            mCount = count;
+            mLastDay = lastDay;
+            mHasMore = hasMore;
+        }
+
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            int page = Arrays.binarySearch(mPageStarts, newPosition);
+            if (page < 0) {
+                // Not the first row of a page: in the page before the insertion point
+                page = -page - 2;
+            }
+            mPage = mPages.get(page);
+            return mPage.moveToPosition(newPosition - mPageStarts[page]);
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mPages.get(0).getColumnNames();
+        }
+
+        @Override
+        public String getString(int column) {
+            return mPage.getString(column);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return mPage.getShort(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return mPage.getInt(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            return mPage.getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return mPage.getFloat(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return mPage.getDouble(column);
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            return mPage.getBlob(column);
+        }
+
+        @Override
+        @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+        public int getType(int column) {
+            return mPage.getType(column);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return mPage.isNull(column);
+        }
+    }
+}
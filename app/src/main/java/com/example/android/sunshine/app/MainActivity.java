@@ -31,6 +31,7 @@ import android.view.MenuItem;
 import android.view.View;
 
 import com.example.android.sunshine.app.gcm.RegistrationIntentService;
+import com.example.android.sunshine.app.sync.SyncScheduler;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 
@@ -107,6 +108,7 @@ public class MainActivity extends AppCompatActivity implements
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.main, menu);
+        menu.findItem(R.id.action_diagnostics).setVisible(BuildConfig.DEBUG);
         return true;
     }
 
@@ -122,6 +124,10 @@ public class MainActivity extends AppCompatActivity implements
             startActivity(new Intent(this, SettingsActivity.class));
             return true;
         }
+        if (id == R.id.action_diagnostics) {
+            startActivity(new Intent(this, DiagnosticsActivity.class));
+            return true;
+        }
 
         return super.onOptionsItemSelected(item);
     }
@@ -131,6 +137,7 @@ public class MainActivity extends AppCompatActivity implements
         super.onResume();
 
         // Need this to fire up GoogleApiClient in SunshineSyncAdapter
+        SyncScheduler.noteActive(this);
         SunshineSyncAdapter.syncImmediately(this);
 
         String location = Utility.getPreferredLocation( this );
@@ -2,36 +2,52 @@ package com.example.android.sunshine.app;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
-import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
-import android.support.v4.app.NotificationCompat;
-import android.support.v4.app.TaskStackBuilder;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
 import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.data.LocationIdCache;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.ForecastDiff;
+import com.example.android.sunshine.app.sync.ForecastJsonParser;
+import com.example.android.sunshine.app.sync.JobSchedulerBackend;
+import com.example.android.sunshine.app.sync.OpenWeatherMapSource;
+import com.example.android.sunshine.app.sync.SyncAdapterBackend;
+import com.example.android.sunshine.app.sync.SyncBackend;
+import com.example.android.sunshine.app.sync.SyncCircuitBreaker;
+import com.example.android.sunshine.app.sync.SyncCoalescer;
+import com.example.android.sunshine.app.sync.SyncMetrics;
+import com.example.android.sunshine.app.sync.SyncScheduler;
+import com.example.android.sunshine.app.sync.SyncSignals;
+import com.example.android.sunshine.app.sync.SyncTrace;
+import com.example.android.sunshine.app.sync.WeatherHttpClient;
+import com.example.android.sunshine.app.sync.WeatherSource;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.PendingResult;
@@ -44,21 +60,22 @@ import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         MessageApi.MessageListener,
@@ -78,12 +95,17 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     // Request code for launching the Intent to resolve Google Play services errors.
     private static final int REQUEST_RESOLVE_ERROR = 1000;
 
-    // Interval at which to sync with the weather, in seconds.
+    // Interval at which to sync with the weather, in seconds, until the SyncScheduler has
+    // something to go on.
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
-    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
-    private static final int WEATHER_NOTIFICATION_ID = 3004;
+    // Upper bound on the number of locations fetched at the same time
+    private static final int MAX_CONCURRENT_LOCATIONS = 4;
+    // Tries per request before a location is given up on for this sync
+    private static final int MAX_FETCH_ATTEMPTS = 3;
+    // Most city ids OpenWeatherMap accepts in one group request
+    private static final int MAX_GROUP_SIZE = 20;
 
     private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
@@ -115,105 +137,383 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     private static final String WEATHER_ICON_KEY = "icon";
     private static final String TIME_STAMP_KEY = "time_stamp";
 
+    // Resends the stored forecast to the wearable off the main thread, one at a time
+    private static final ExecutorService sWatchExecutor = Executors.newSingleThreadExecutor();
+    // When the forecast was last sent to the wearable, by SystemClock.elapsedRealtime()
+    private static volatile long sLastWatchSendAt;
+
+    private final SyncScheduler mScheduler = SyncScheduler.createDefault(SYNC_INTERVAL);
+    private WeatherHttpClient mHttpClient = new WeatherHttpClient(MAX_FETCH_ATTEMPTS);
+    private WeatherSource mWeatherSource = OpenWeatherMapSource.createDefault(mHttpClient);
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
     }
 
+    /**
+     * Points the sync at another source, such as one backed by a local stub server.
+     *
+     * @param httpClient the client the source fetches with, whose byte counts the sync records
+     */
+    @VisibleForTesting
+    public synchronized void setWeatherSource(WeatherSource source, WeatherHttpClient httpClient) {
+        mWeatherSource = source;
+        mHttpClient = httpClient;
+    }
+
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
+        performSync(syncResult);
+    }
+
+    /**
+     * Runs the whole sync: fetch and store every location, then schedule the next one.  Called
+     * by the SyncAdapter framework and by the JobScheduler backend's periodic job, one at a
+     * time whichever calls first.
+     */
+    public synchronized void performSync(SyncResult syncResult) {
+        String preferredLocation = Utility.getPreferredLocation(getContext());
+
+        // However this sync was triggered, it repeats the last one if that was moments ago
+        SyncCoalescer coalescer = SyncCoalescer.getInstance();
+        if (!coalescer.onSyncStarted(preferredLocation)) {
+            Log.d(LOG_TAG, preferredLocation + " was synced moments ago; not syncing again");
+            return;
+        }
+        boolean success = false;
+        try {
+            success = syncAllLocations(preferredLocation, syncResult);
+        } finally {
+            coalescer.onSyncFinished(preferredLocation, success);
+        }
+    }
+
+    /**
+     * @return true if the server answered for at least one location.
+     */
+    private boolean syncAllLocations(String preferredLocation, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
+
+        // While the server is known to be down, fail fast rather than spend battery and API
+        // quota on requests it won't answer.  Expedited syncs ignore the SyncManager's own
+        // backoff, so this is what keeps them off the server.
+        SyncCircuitBreaker breaker = new SyncCircuitBreaker(getContext());
+        if (!breaker.allowRequest()) {
+            Log.d(LOG_TAG, "Server down; not syncing until " + breaker.getRetryAtMillis());
+            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            syncResult.delayUntil = breaker.getRetryAtMillis() / 1000;
+            return false;
+        }
 
         if (isPaired) {
             startUpGoogleApiClient();
         }
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+        mHttpClient.resetCounters();
+        long startTime = System.currentTimeMillis();
+        final SyncTrace trace = new SyncTrace();
+        List<String> locations = getLocationsToSync(preferredLocation);
+        int numLocations = locations.size();
+        // How many locations the server answered for, and how many it failed to
+        int answered = 0;
+        int serverDown = 0;
+
+        // Locations whose city id we know can share group requests.  Whatever the group
+        // requests don't answer for is fetched on its own below.
+        SyncResult groupResult = new SyncResult();
+        if (mWeatherSource.supportsGroups()) {
+            Map<String, Integer> groupStatuses =
+                    syncGroups(locations, preferredLocation, groupResult, trace);
+            Integer preferredStatus = groupStatuses.get(preferredLocation);
+            if (preferredStatus != null) {
+                setLocationStatus(getContext(), preferredStatus);
+            }
+            answered += groupStatuses.size();
+            locations.removeAll(groupStatuses.keySet());
+        }
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        // Fetch every remaining location concurrently.  The executor bounds the total number of
+        // fetches in flight and WeatherHttpClient caps how many of them hit the same host at once.
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(MAX_CONCURRENT_LOCATIONS, locations.size())));
+        List<Future<Integer>> statuses = new ArrayList<Future<Integer>>(locations.size());
+        List<SyncResult> results = new ArrayList<SyncResult>(locations.size());
+        for (final String location : locations) {
+            final boolean isPreferred = location.equals(preferredLocation);
+            final SyncResult locationResult = new SyncResult();
+            results.add(locationResult);
+            statuses.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return syncLocation(location, isPreferred, locationResult, trace);
+                }
+            }));
+        }
+        executor.shutdown();
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+        try {
+            for (int i = 0; i < locations.size(); i++) {
+                String location = locations.get(i);
+                @LocationStatus int status;
+                try {
+                    status = statuses.get(i).get();
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Sync of " + location + " failed", e.getCause());
+                    results.get(i).stats.numIoExceptions++;
+                    status = LOCATION_STATUS_SERVER_DOWN;
+                }
+                if (status == LOCATION_STATUS_SERVER_DOWN) {
+                    serverDown++;
+                } else {
+                    answered++;
+                }
+                // Only the location the user is looking at reports a status
+                if (location.equals(preferredLocation)) {
+                    setLocationStatus(getContext(), status);
+                }
+            }
+        } catch (InterruptedException e) {
+            // The sync was cancelled; stop whatever is still running
+            Log.d(LOG_TAG, "Sync interrupted");
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        } finally {
+            addStats(syncResult, groupResult);
+            for (SyncResult locationResult : results) {
+                addStats(syncResult, locationResult);
+            }
+            recordTransfer(syncResult);
+            SyncMetrics.recordSync(getContext(), trace, startTime,
+                    mHttpClient.getCompressedBytes(), mHttpClient.getUncompressedBytes(),
+                    numLocations, serverDown);
+            // All of this sync's writes are in; fold them into the database now rather than
+            // in the middle of the next one
+            checkpointDatabase();
+            Log.d(LOG_TAG, "Sync took " + trace.getElapsedMillis() + "ms: connect " +
+                    trace.getMillis(SyncTrace.PHASE_CONNECT) + "ms, download " +
+                    trace.getMillis(SyncTrace.PHASE_DOWNLOAD) + "ms, parse " +
+                    trace.getMillis(SyncTrace.PHASE_PARSE) + "ms, commit " +
+                    trace.getMillis(SyncTrace.PHASE_COMMIT) + "ms, notify " +
+                    trace.getMillis(SyncTrace.PHASE_NOTIFY) + "ms, wear " +
+                    trace.getMillis(SyncTrace.PHASE_WEAR) + "ms");
+        }
 
+        // A cancelled sync says nothing about the server
+        if (Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+        if (answered > 0) {
+            breaker.recordSuccess();
+        } else if (serverDown > 0) {
+            long retryAt = breaker.recordFailure();
+            if (retryAt > 0) {
+                Log.d(LOG_TAG, "Server down; circuit open until " + retryAt);
+                syncResult.delayUntil = retryAt / 1000;
+            }
+        }
+        scheduleNextSync(preferredLocation, syncResult);
+        return answered > 0;
+    }
+
+    /**
+     * Asks the provider to checkpoint the database's write-ahead log.  The database has no
+     * log before Honeycomb.
+     */
+    private void checkpointDatabase() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
+            getContext().getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_CHECKPOINT, null, null);
+        } catch (SQLException e) {
+            // Nothing lost; SQLite's own automatic checkpoint will get to it
+            Log.w(LOG_TAG, "Checkpoint failed", e);
+        }
+    }
+
+    /**
+     * Lets the {@link SyncScheduler} pick the next periodic sync interval from what this sync
+     * found, and reschedules the periodic sync if the interval changed or the backend has none
+     * scheduled.  If the forecast changed, the deferred work is scheduled to catch up with it.
+     */
+    private void scheduleNextSync(String preferredLocation, SyncResult syncResult) {
+        Context context = getContext();
+        SyncSignals signals = new SyncSignals();
+        signals.receivedDays = (int) syncResult.stats.numEntries;
+        signals.changedDays = (int) syncResult.stats.numInserts;
+        signals.daysAhead = countStoredDaysAhead(preferredLocation);
+        signals.unmetered = Utility.isNetworkUnmetered(context);
+        signals.charging = Utility.isCharging(context);
+        signals.lastActiveMillis = SyncScheduler.getLastActiveMillis(context);
+
+        SyncBackend backend = getSyncBackend();
+        long interval = mScheduler.getNextIntervalSeconds(signals);
+        if (interval != SyncScheduler.getScheduledInterval(context)
+                || !backend.isPeriodicSyncScheduled(context)) {
+            Log.d(LOG_TAG, "Next periodic sync in " + interval + "s");
+            backend.schedulePeriodicSync(context, interval, interval / 3);
+            SyncScheduler.setScheduledInterval(context, interval);
+        }
 
-            URL url = new URL(builtUri.toString());
+        if (syncResult.stats.numInserts > 0) {
+            backend.scheduleDeferredWork(context);
+        }
+    }
 
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
+    /**
+     * Fetches the forecasts of every location whose city id is known through group requests of
+     * up to {@link #MAX_GROUP_SIZE} cities each, and stores them.  A group that fails is only
+     * logged: its locations are missing from the returned map, and the caller fetches each of
+     * them on its own.
+     *
+     * @return the status of every location a group request answered for, by location setting
+     */
+    private Map<String, Integer> syncGroups(List<String> locations, String preferredLocation,
+                                            SyncResult syncResult, SyncTrace trace) {
+        Map<String, Integer> statuses = new HashMap<String, Integer>();
+        List<Long> cityIds = new ArrayList<Long>();
+        Map<Long, String> locationsByCityId = getLocationsByCityId(locations);
+        cityIds.addAll(locationsByCityId.keySet());
+
+        for (int start = 0; start < cityIds.size(); start += MAX_GROUP_SIZE) {
+            List<Long> group = cityIds.subList(start,
+                    Math.min(start + MAX_GROUP_SIZE, cityIds.size()));
+            try {
+                for (ForecastJsonParser.Forecast forecast : mWeatherSource.fetchGroup(group, trace)) {
+                    String location = locationsByCityId.get(forecast.cityId);
+                    if (location == null || !group.contains(forecast.cityId)) {
+                        // Not one we asked for in this group
+                        continue;
+                    }
+                    syncResult.stats.numEntries += forecast.days.size();
+                    // The rows no longer come from the response the stored validators
+                    // describe, so they are cleared along with the store
+                    @LocationStatus int status = storeForecast(forecast, location,
+                            location.equals(preferredLocation), null, null, syncResult, trace);
+                    if (status != LOCATION_STATUS_SERVER_DOWN) {
+                        // A city the server couldn't answer for here gets asked on its own
+                        statuses.put(location, status);
+                    }
+                }
+            } catch (IOException | JSONException e) {
+                // Not counted against the sync: the per-city requests get their own chance
+                Log.w(LOG_TAG, "Group request for " + group.size() +
+                        " cities failed; falling back to one request per city", e);
+            }
+        }
+        Log.d(LOG_TAG, "Group requests answered for " + statuses.size() + " of " +
+                locations.size() + " locations");
+        return statuses;
+    }
 
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
+    /**
+     * @return the openweathermap city id of each of the given locations that has one stored.
+     */
+    private Map<Long, String> getLocationsByCityId(List<String> locations) {
+        Map<Long, String> locationsByCityId = new HashMap<Long, String>();
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                        WeatherContract.LocationEntry.COLUMN_CITY_ID},
+                WeatherContract.LocationEntry.COLUMN_CITY_ID + " IS NOT NULL",
+                null, null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                String location = cursor.getString(0);
+                if (locations.contains(location)) {
+                    locationsByCityId.put(cursor.getLong(1), location);
+                }
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            cursor.close();
+        }
+        return locationsByCityId;
+    }
+
+    /**
+     * @return the preferred location followed by every other location saved in the database.
+     */
+    private List<String> getLocationsToSync(String preferredLocation) {
+        List<String> locations = new ArrayList<String>();
+        locations.add(preferredLocation);
+
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                null, null, null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                String location = cursor.getString(0);
+                if (!location.equals(preferredLocation)) {
+                    locations.add(location);
+                }
             }
+            cursor.close();
+        }
+        return locations;
+    }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+    /**
+     * Fetches, parses and stores the forecast for one location.  Runs on one of the sync
+     * executor's threads, so it must only touch its own SyncResult.
+     *
+     * @param locationQuery The location string used to request updates from the server.
+     * @param isPreferred true for the location the user is looking at, which is the only one
+     *                    that notifies and is pushed to the wearable
+     * @return the resulting location status
+     */
+    @LocationStatus
+    private int syncLocation(String locationQuery, boolean isPreferred, SyncResult syncResult,
+                             SyncTrace trace) {
+        try {
+            // Fetch the forecast, made conditional on the validators of the forecast we
+            // already hold for this location
+            String[] validators = getValidators(locationQuery);
+            WeatherSource.Result result =
+                    mWeatherSource.fetchForecast(locationQuery, validators[0], validators[1], trace);
+
+            if (result.notModified) {
+                // The forecast we have is still current.  Nothing to parse, store or delete.
+                Log.d(LOG_TAG, "Sync of " + locationQuery + " Complete. Forecast not modified");
+                return LOCATION_STATUS_OK;
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+
+            syncResult.stats.numEntries += result.forecast.days.size();
+            return storeForecast(result.forecast, locationQuery, isPreferred,
+                    result.etag, result.lastModified, syncResult, trace);
 
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
+            syncResult.stats.numIoExceptions++;
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            return LOCATION_STATUS_SERVER_DOWN;
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
-            }
+            syncResult.stats.numParseExceptions++;
+            return LOCATION_STATUS_SERVER_INVALID;
         }
-        return;
+    }
+
+    private static void addStats(SyncResult total, SyncResult part) {
+        total.stats.numEntries += part.stats.numEntries;
+        total.stats.numInserts += part.stats.numInserts;
+        total.stats.numDeletes += part.stats.numDeletes;
+        total.stats.numIoExceptions += part.stats.numIoExceptions;
+        total.stats.numParseExceptions += part.stats.numParseExceptions;
+    }
+
+    /**
+     * Records how many body bytes this sync moved, compressed and as parsed.  SyncStats has no
+     * byte counters, so they go to the log with the stats and to {@link SyncMetrics}.
+     */
+    private void recordTransfer(SyncResult syncResult) {
+        long compressed = mHttpClient.getCompressedBytes();
+        long uncompressed = mHttpClient.getUncompressedBytes();
+        SyncMetrics.recordTransfer(getContext(), compressed, uncompressed);
+        Log.d(LOG_TAG, "Sync transferred " + compressed + " bytes (" + uncompressed +
+                " uncompressed); " + syncResult.stats);
     }
 
     // Start up GoogleApiClient
@@ -238,6 +538,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     // Send forecast hi, low and weather icon to wearable, if present
     void sendForecastToWatch(double hi, double lo, int weatherId) {
         if (!isPaired || mGoogleApiClient == null) return;
+        sLastWatchSendAt = SystemClock.elapsedRealtime();
 
         PutDataMapRequest dataMap = PutDataMapRequest.create(FORECAST_PATH);
         dataMap.getDataMap().putDouble(HI_TEMP_KEY, hi);
@@ -283,8 +584,46 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                 + messageEvent.getRequestId() + " " + messagePath);
 
         if (messagePath.equals(FORECAST_PATH)) {
-            syncImmediately(getContext());
+            SyncScheduler.noteActive(getContext());
+            // The watch asks whenever its cache is empty.  A fresh forecast needs no fetch,
+            // only to be sent again, and one on its way is sent once it arrives.  A sync that
+            // stores a new forecast sends it itself; anything else leaves the stored one to send.
+            final long requestedAt = SystemClock.elapsedRealtime();
+            syncImmediately(getContext(), new SyncCoalescer.Listener() {
+                @Override
+                public void onSyncFinished(boolean success) {
+                    if (sLastWatchSendAt >= requestedAt) {
+                        Log.d(LOG_TAG, "Forecast already sent to the watch");
+                        return;
+                    }
+                    sWatchExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            resendForecastToWatch();
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    /**
+     * Sends today's stored forecast for the preferred location to the wearable.
+     */
+    private void resendForecastToWatch() {
+        Context context = getContext();
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                        Utility.getPreferredLocation(context), System.currentTimeMillis()),
+                NOTIFY_WEATHER_PROJECTION, null, null, null);
+        if (cursor == null) {
+            return;
         }
+        if (cursor.moveToFirst()) {
+            sendForecastToWatch(cursor.getDouble(INDEX_MAX_TEMP), cursor.getDouble(INDEX_MIN_TEMP),
+                    cursor.getInt(INDEX_WEATHER_ID));
+        }
+        cursor.close();
     }
 
     @Override
@@ -324,372 +663,393 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
      }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * Take the parsed forecast and store its location and daily rows in the database.  For the
+     * preferred location, also notify and push today's forecast to the wearable.
+     *
+     * The parser hands us the rows without a date or location key; those are stamped here.
+     * The location row, the new and changed days and the deletion of stale ones are committed
+     * with a single applyBatch, so they land in one transaction with one notification per URI,
+     * and readers never see a half-updated forecast.  A forecast that changes nothing that is
+     * stored writes nothing at all.  Each location has its own batch, so a slow or failing
+     * location never holds up the others.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @param etag the ETag of the response the forecast came from, or null
+     * @param lastModified the Last-Modified date of that response, or null
+     * @return the resulting location status
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
+    @LocationStatus
+    private int storeForecast(ForecastJsonParser.Forecast forecast, String locationSetting,
+                              boolean isPreferred, String etag, String lastModified,
+                              SyncResult syncResult, SyncTrace trace) {
+
+        // do we have an error?
+        switch (forecast.messageCode) {
+            case HttpURLConnection.HTTP_OK:
+                break;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                return LOCATION_STATUS_INVALID;
+            default:
+                return LOCATION_STATUS_SERVER_DOWN;
+        }
 
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
+        ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+
+        // The location row is resolved first, from the cache or by a single upsert, and then
+        // updated with the response's city id and validators in the same transaction as the
+        // rows they describe, if they differ from the stored ones.  The update must hit
+        // exactly one row: if the cached id has gone stale, the whole batch is rolled back
+        // rather than storing orphaned weather.
+        long locationId = resolveLocationId(locationSetting, forecast);
+        if (locationId == -1) {
+            syncResult.databaseError = true;
+            return LOCATION_STATUS_UNKNOWN;
+        }
+        ContentValues locationValues = new ContentValues();
+        if (forecast.cityId != 0) {
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_ID, forecast.cityId);
+        }
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_ETAG, etag);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED, lastModified);
+        boolean locationChanged = !isStored(locationId, locationValues);
+        if (locationChanged) {
+            ops.add(ContentProviderOperation.newUpdate(WeatherContract.LocationEntry.CONTENT_URI)
+                    .withSelection(WeatherContract.LocationEntry._ID + " = ?",
+                            new String[]{Long.toString(locationId)})
+                    .withValues(locationValues)
+                    .withExpectedCount(1)
+                    .build());
+        }
 
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        // now we work exclusively in UTC
+        dayTime = new Time();
+
+        int numDays = forecast.days.size();
+        for (int i = 0; i < numDays; i++) {
+            ContentValues weatherValues = forecast.days.get(i);
+
+            // The day number is the row's key, so the diff matches days against the stored ones
+            // by it.  With the date alongside, the provider has nothing to work out per row.
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH,
+                    ForecastDiff.contentHash(weatherValues));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DAY, julianStartDay + i);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    dayTime.setJulianDay(julianStartDay + i));
+
+            // Gather today's min, max and weather id only and send wearable if present
+            if (i == 0 && isPaired && isPreferred) {
+                double high = weatherValues.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+                double low = weatherValues.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+                int weatherId = weatherValues.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+                Log.d(LOG_TAG, "Sending forecast: hi: " + high + "; lo: " + low +
+                        "; weatherId: " + weatherId);
+                // Only the time to build and queue the data item; delivery is asynchronous
+                long wearStart = SyncTrace.start();
+                sendForecastToWatch(high, low, weatherId);
+                trace.end(SyncTrace.PHASE_WEAR, wearStart);
+            }
+        }
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+        // add to database: only the days that are new or changed, and delete the ones the
+        // forecast no longer covers so we don't build up an endless history.  When nothing
+        // differs no weather rows are written, and the provider notifies no forecast loaders.
+        ForecastDiff diff = ForecastDiff.compute(getStoredHashes(locationId), forecast.days);
+        syncResult.stats.numSkippedEntries += diff.unchanged;
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+        for (ContentValues weatherValues : diff.upserts) {
+            ops.add(ContentProviderOperation.newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues)
+                    .build());
+        }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+        int deleteIndex = -1;
+        if (!diff.removedDays.isEmpty()) {
+            // Days the forecast has moved past are archived as they're deleted, in the same
+            // batch, so none is lost between the two
+            for (ContentValues pastDay : getPastDays(locationId, julianStartDay)) {
+                ops.add(ContentProviderOperation.newInsert(WeatherContract.ArchiveEntry.CONTENT_URI)
+                        .withValues(pastDay)
+                        .build());
+            }
+            StringBuilder selection = new StringBuilder(
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DAY + " IN (");
+            String[] selectionArgs = new String[diff.removedDays.size() + 1];
+            selectionArgs[0] = Long.toString(locationId);
+            for (int i = 0; i < diff.removedDays.size(); i++) {
+                selection.append(i == 0 ? "?" : ",?");
+                selectionArgs[i + 1] = Integer.toString(diff.removedDays.get(i));
+            }
+            selection.append(')');
+            deleteIndex = ops.size();
+            ops.add(ContentProviderOperation.newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withSelection(selection.toString(), selectionArgs)
+                    .build());
+        }
 
-        final String OWM_MESSAGE_CODE = "cod";
+        if (!locationChanged && !ops.isEmpty()) {
+            // Without the update, the batch still makes sure the location row is there
+            ops.add(0, ContentProviderOperation.newAssertQuery(
+                    WeatherContract.LocationEntry.CONTENT_URI)
+                    .withSelection(WeatherContract.LocationEntry._ID + " = ?",
+                            new String[]{Long.toString(locationId)})
+                    .withExpectedCount(1)
+                    .build());
+            if (deleteIndex != -1) {
+                deleteIndex++;
+            }
+        }
 
+        long commitStart = SyncTrace.start();
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            // When nothing differs there's no transaction to commit at all
+            if (!ops.isEmpty()) {
+                ContentProviderResult[] results = getContext().getContentResolver()
+                        .applyBatch(WeatherContract.CONTENT_AUTHORITY, ops);
+                syncResult.stats.numInserts += diff.upserts.size();
+                if (deleteIndex != -1) {
+                    syncResult.stats.numDeletes += results[deleteIndex].count;
                 }
             }
+        } catch (RemoteException | OperationApplicationException | SQLException e) {
+            // Nothing was written; the stored forecast is as it was before this sync.  The
+            // cached location id may be what failed, so it is looked up afresh next time.
+            Log.e(LOG_TAG, "Error storing forecast for " + locationSetting, e);
+            LocationIdCache.getInstance().invalidate();
+            syncResult.databaseError = true;
+            return LOCATION_STATUS_UNKNOWN;
+        } finally {
+            trace.end(SyncTrace.PHASE_COMMIT, commitStart);
+        }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                // Gather today's min, max and weather id only and send wearable if present
-                if (i == 0 && isPaired) {
-                    Log.d(LOG_TAG, "Sending forecast: hi: " + high + "; lo: " + low +
-                            "; weatherId: " + weatherId);
-                    sendForecastToWatch(high, low, weatherId);
-                }
-
-                ContentValues weatherValues = new ContentValues();
+        if (numDays > 0 && isPreferred) {
+            long notifyStart = SyncTrace.start();
+            // Today's row as just parsed; the notification doesn't wait on the provider
+            WeatherNotifier.notifyWeather(getContext(), forecast.days.get(0));
+            trace.end(SyncTrace.PHASE_NOTIFY, notifyStart);
+        }
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        Log.d(LOG_TAG, "Sync of " + locationSetting + " Complete. " + diff.upserts.size() +
+                " Inserted, " + diff.unchanged + " Unchanged");
+        return LOCATION_STATUS_OK;
+    }
 
-                cVVector.add(weatherValues);
+    /**
+     * @return the content hash of each of the location's stored days, by day number.  Rows
+     * stored without a hash map to null.
+     */
+    private Map<Integer, Long> getStoredHashes(long locationId) {
+        Map<Integer, Long> hashes = new HashMap<Integer, Long>();
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DAY,
+                        WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH},
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationId)},
+                null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                hashes.put(cursor.getInt(0), cursor.isNull(1) ? null : cursor.getLong(1));
             }
+            cursor.close();
+        }
+        return hashes;
+    }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                notifyWeather();
+    /**
+     * @return the location's stored days before the given day number, with the columns the
+     * archive keeps.
+     */
+    private List<ContentValues> getPastDays(long locationId, int beforeDay) {
+        List<ContentValues> days = new ArrayList<ContentValues>();
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.ArchiveEntry.COLUMNS,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                        WeatherContract.WeatherEntry.COLUMN_DAY + " < ?",
+                new String[]{Long.toString(locationId), Integer.toString(beforeDay)},
+                null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                ContentValues day = new ContentValues();
+                DatabaseUtils.cursorRowToContentValues(cursor, day);
+                day.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                days.add(day);
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
-
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            cursor.close();
         }
+        return days;
     }
 
-    private void notifyWeather() {
-        Context context = getContext();
-        //checking the last update and notify if it' the first of the day
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
-
-        if ( displayNotifications ) {
-
-            String lastNotificationKey = context.getString(R.string.pref_last_notification);
-            long lastSync = prefs.getLong(lastNotificationKey, 0);
-
-            if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
-                // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-                    NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-                    //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
-                }
-                cursor.close();
-            }
+    /**
+     * @return how many days of forecast, from today on, are stored for the location.
+     */
+    private int countStoredDaysAhead(String locationSetting) {
+        // Counted by the database, rather than by reading every day into a cursor
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherStatsEntry.buildStatsUri(
+                        locationSetting, System.currentTimeMillis(), Long.MAX_VALUE),
+                new String[]{WeatherContract.WeatherStatsEntry.COLUMN_DAY_COUNT},
+                null, null, null);
+        if (cursor == null) {
+            return 0;
         }
+        int count = cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        cursor.close();
+        return count;
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Looks up the HTTP validators stored with the last forecast for a location.  They are only
+     * returned while we still hold forecast rows from today on, so that a 304 can never leave
+     * the user with an empty forecast.
      *
      * @param locationSetting The location string used to request updates from the server.
-     * @param cityName A human-readable city name, e.g "Mountain View"
-     * @param lat the latitude of the city
-     * @param lon the longitude of the city
-     * @return the row ID of the added location.
+     * @return a two element array of {ETag, Last-Modified}; either may be null.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
+    private String[] getValidators(String locationSetting) {
+        String[] validators = new String[2];
+        ContentResolver resolver = getContext().getContentResolver();
+
+        if (countStoredDaysAhead(locationSetting) == 0) {
+            return validators;
+        }
 
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
+        Cursor locationCursor = resolver.query(
                 WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
+                new String[]{WeatherContract.LocationEntry.COLUMN_ETAG,
+                        WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED},
                 WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
                 new String[]{locationSetting},
                 null);
+        if (locationCursor != null) {
+            if (locationCursor.moveToFirst()) {
+                validators[0] = locationCursor.getString(0);
+                validators[1] = locationCursor.getString(1);
+            }
+            locationCursor.close();
+        }
+        return validators;
+    }
 
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+    /**
+     * @return true if the location's row already holds each of the values, so writing them
+     * would change nothing.  False if the row isn't there.
+     */
+    private boolean isStored(long locationId, ContentValues values) {
+        // keySet() would need API 11
+        String[] columns = new String[values.size()];
+        int column = 0;
+        for (Map.Entry<String, Object> value : values.valueSet()) {
+            columns[column++] = value.getKey();
+        }
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                columns,
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationId)},
+                null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return false;
+            }
+            for (int i = 0; i < columns.length; i++) {
+                if (!TextUtils.equals(values.getAsString(columns[i]), cursor.getString(i))) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            cursor.close();
+        }
+    }
 
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
+    /**
+     * Helper method to find a location's row in the weather database, adding it if it isn't
+     * there yet.  Once a location has been seen this costs no provider call at all.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @param forecast the forecast for the location, which names it should it need adding
+     * @return the row ID of the location, or -1 if it couldn't be stored.
+     */
+    private long resolveLocationId(String locationSetting, ForecastJsonParser.Forecast forecast) {
+        long locationId = LocationIdCache.getInstance().get(locationSetting);
+        if (locationId != -1) {
+            return locationId;
+        }
 
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
+        // Inserted only if it isn't stored already; the provider caches the id either way
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, forecast.cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, forecast.cityLatitude);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, forecast.cityLongitude);
+        try {
+            Uri locationUri = getContext().getContentResolver().insert(
+                    WeatherContract.LocationEntry.UPSERT_URI, locationValues);
+            return ContentUris.parseId(locationUri);
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error adding location " + locationSetting, e);
+            return -1;
         }
+    }
 
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+    /**
+     * @return the backend to schedule background work with: JobScheduler where the device has
+     * it, the SyncAdapter framework where it doesn't.
+     */
+    public static SyncBackend getSyncBackend() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return new JobSchedulerBackend();
+        }
+        return new SyncAdapterBackend();
     }
 
     /**
-     * Helper method to schedule the sync adapter periodic execution
+     * Helper method to schedule the periodic sync with the device's backend
      */
     public static void configurePeriodicSync(Context context, int syncInterval, int flexTime) {
-        Account account = getSyncAccount(context);
-        String authority = context.getString(R.string.content_authority);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-            // we can enable inexact timers in our periodic sync
-            SyncRequest request = new SyncRequest.Builder().
-                    syncPeriodic(syncInterval, flexTime).
-                    setSyncAdapter(account, authority).
-                    setExtras(new Bundle()).build();
-            ContentResolver.requestSync(request);
-        } else {
-            ContentResolver.addPeriodicSync(account,
-                    authority, new Bundle(), syncInterval);
-        }
+        getSyncBackend().schedulePeriodicSync(context, syncInterval, flexTime);
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync immediately, unless the preferred location
+     * is already being synced or just was
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        syncImmediately(context, null);
+    }
+
+    /**
+     * @param listener told on the main thread once the preferred location has been synced,
+     *                 whether by a new sync or by the one this request was merged into
+     * @see SyncCoalescer
+     */
+    public static void syncImmediately(Context context, SyncCoalescer.Listener listener) {
         Log.d(LOG_TAG, "syncImmediately called");
-        Bundle bundle = new Bundle();
-        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
-        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
-        ContentResolver.requestSync(getSyncAccount(context),
-                context.getString(R.string.content_authority), bundle);
+        boolean requested = SyncCoalescer.getInstance().requestSync(
+                context, Utility.getPreferredLocation(context), listener);
+        if (!requested) {
+            Log.d(LOG_TAG, "Merged into a recent sync");
+        }
     }
 
     /**
@@ -16,9 +16,13 @@
 package com.example.android.sunshine.app;
 
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
 import android.preference.PreferenceManager;
 import android.text.format.Time;
 
@@ -515,6 +519,37 @@ public class Utility {
                 activeNetwork.isConnectedOrConnecting();
     }
 
+    /**
+     * Returns true if the active network doesn't charge by the byte, i.e. is not cellular.
+     *
+     * @param c Context used to get the ConnectivityManager
+     * @return true if there is an active network and it is unmetered
+     */
+    static public boolean isNetworkUnmetered(Context c) {
+        ConnectivityManager cm =
+                (ConnectivityManager)c.getSystemService(Context.CONNECTIVITY_SERVICE);
+
+        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
+        if (activeNetwork == null || !activeNetwork.isConnected()) {
+            return false;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return !cm.isActiveNetworkMetered();
+        }
+        return activeNetwork.getType() != ConnectivityManager.TYPE_MOBILE;
+    }
+
+    /**
+     * Returns true if the device is plugged in.
+     *
+     * @param c Context used to read the sticky battery broadcast
+     * @return true if the device is connected to a power source
+     */
+    static public boolean isCharging(Context c) {
+        Intent battery = c.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
     /**
      *
      * @param c Context used to get the SharedPreferences
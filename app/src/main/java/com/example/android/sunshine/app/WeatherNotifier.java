@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.service.notification.StatusBarNotification;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.TaskStackBuilder;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.request.animation.GlideAnimation;
+import com.bumptech.glide.request.target.SimpleTarget;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Posts the once-a-day weather notification.  The notification goes up straight away with the
+ * bundled art as its large icon; when an art pack is in use, the pack's art is loaded on the
+ * main thread afterwards and the notification updated with it.  Nothing here waits on the
+ * network, so a slow art host never holds up the sync.  The update never alerts again, and is
+ * never posted once the notification may have been dismissed.
+ */
+class WeatherNotifier {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int WEATHER_NOTIFICATION_ID = 3004;
+    // Before Marshmallow there's no telling whether the notification is still showing, so the
+    // art only replaces the bundled art if it arrives within this long of the first post
+    private static final long UPGRADE_WINDOW_MILLIS = 5 * 1000;
+
+    /**
+     * Notifies today's weather, unless notifications are off or one went out less than a day
+     * ago.  Commits to the preferences, so must not be called from the UI thread.
+     *
+     * @param today today's weather row, as just parsed for the preferred location
+     */
+    static void notifyWeather(Context context, ContentValues today) {
+        //checking the last update and notify if it' the first of the day
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
+        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
+                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
+        if (!displayNotifications) {
+            return;
+        }
+
+        String lastNotificationKey = context.getString(R.string.pref_last_notification);
+        long lastSync = prefs.getLong(lastNotificationKey, 0);
+        if (System.currentTimeMillis() - lastSync < DAY_IN_MILLIS) {
+            return;
+        }
+
+        // Last sync was more than 1 day ago, let's send a notification with the weather.
+        int weatherId = today.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        double high = today.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+        double low = today.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+        String desc = today.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+
+        int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
+        Resources resources = context.getResources();
+        int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        String title = context.getString(R.string.app_name);
+
+        // Define the text of the forecast.
+        String contentText = String.format(context.getString(R.string.format_notification),
+                desc,
+                Utility.formatTemperature(context, high),
+                Utility.formatTemperature(context, low));
+
+        // NotificationCompatBuilder is a very convenient way to build backward-compatible
+        // notifications.  Just throw in some data.
+        NotificationCompat.Builder builder =
+                new NotificationCompat.Builder(context)
+                        .setColor(resources.getColor(R.color.primary_light))
+                        .setSmallIcon(iconId)
+                        .setLargeIcon(BitmapFactory.decodeResource(resources, artResourceId))
+                        .setContentTitle(title)
+                        .setContentText(contentText)
+                        // Updating it with the art pack's art mustn't sound or buzz again
+                        .setOnlyAlertOnce(true);
+
+        // Make something interesting happen when the user clicks on the notification.
+        // In this case, opening the app is sufficient.
+        Intent resultIntent = new Intent(context, MainActivity.class);
+
+        // The stack builder object will contain an artificial back stack for the
+        // started Activity.
+        // This ensures that navigating backward from the Activity leads out of
+        // your application to the Home screen.
+        TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
+        stackBuilder.addNextIntent(resultIntent);
+        PendingIntent resultPendingIntent =
+                stackBuilder.getPendingIntent(
+                        0,
+                        PendingIntent.FLAG_UPDATE_CURRENT
+                );
+        builder.setContentIntent(resultPendingIntent);
+
+        NotificationManager notificationManager =
+                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
+        notificationManager.notify(WEATHER_NOTIFICATION_ID, builder.build());
+        long postedAt = SystemClock.elapsedRealtime();
+
+        //refreshing last sync
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putLong(lastNotificationKey, System.currentTimeMillis());
+        editor.commit();
+
+        if (!Utility.usingLocalGraphics(context)) {
+            upgradeLargeIcon(context.getApplicationContext(), builder,
+                    Utility.getArtUrlForWeatherCondition(context, weatherId), postedAt);
+        }
+    }
+
+    /**
+     * Loads the art pack's art for the notification and, once it's in, posts the notification
+     * again with it.  Glide is started from the main thread and calls back there; if the art
+     * can't be had, the bundled art stays.
+     *
+     * @param postedAt when the notification was first posted, in elapsed realtime
+     */
+    private static void upgradeLargeIcon(final Context context,
+                                         final NotificationCompat.Builder builder,
+                                         final String artUrl, final long postedAt) {
+        if (artUrl == null) {
+            return;
+        }
+        Resources resources = context.getResources();
+        // On Honeycomb and higher devices, we can retrieve the size of the large icon
+        // Prior to that, we use a fixed size
+        @SuppressLint("InlinedApi")
+        final int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+        @SuppressLint("InlinedApi")
+        final int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                Glide.with(context)
+                        .load(artUrl)
+                        .asBitmap()
+                        .diskCacheStrategy(DiskCacheStrategy.ALL)
+                        .fitCenter()
+                        .into(new SimpleTarget<Bitmap>(largeIconWidth, largeIconHeight) {
+                            @Override
+                            public void onResourceReady(Bitmap largeIcon,
+                                                        GlideAnimation<? super Bitmap> animation) {
+                                NotificationManager notificationManager = (NotificationManager)
+                                        context.getSystemService(Context.NOTIFICATION_SERVICE);
+                                if (mayBeDismissed(notificationManager, postedAt)) {
+                                    return;
+                                }
+                                builder.setLargeIcon(largeIcon);
+                                notificationManager.notify(WEATHER_NOTIFICATION_ID, builder.build());
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * @return true if the notification may be gone, so updating it could bring it back.
+     * Before Marshmallow there's no telling, so it's assumed gone once the upgrade window is
+     * over.
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private static boolean mayBeDismissed(NotificationManager notificationManager,
+                                          long postedAt) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return SystemClock.elapsedRealtime() - postedAt > UPGRADE_WINDOW_MILLIS;
+        }
+        for (StatusBarNotification notification : notificationManager.getActiveNotifications()) {
+            if (notification.getId() == WEATHER_NOTIFICATION_ID) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Calendar;
+
+/**
+ * One location-month of archived weather, and its encoding as an archive row's blob.
+ *
+ * Each value is kept as an integer, scaled by ten where a tenth matters (temperatures,
+ * pressure, wind speed).  The blob holds a version byte and a bitmask of the days present,
+ * then for each column, in {@link WeatherContract.ArchiveEntry#COLUMNS} order: the width of
+ * its deltas in bytes, its first day's value as an int, and the difference of every later day
+ * from the day before at that fixed width.  Day to day, the weather moves little, so most
+ * columns fit their deltas in a byte and a month takes a few hundred bytes, where the same
+ * days as weather rows, with their index, take several kilobytes.
+ */
+class ArchiveBlock {
+
+    private static final byte VERSION = 1;
+    // Header: version, then the days present
+    private static final int HEADER_SIZE = 1 + 4;
+
+    static final int MAX_DAYS = 31;
+
+    // The archived columns after the date, and what each is multiplied by to keep it whole
+    static final String[] VALUE_COLUMNS = Arrays.copyOfRange(
+            WeatherContract.ArchiveEntry.COLUMNS, 1, WeatherContract.ArchiveEntry.COLUMNS.length);
+    private static final int[] SCALES = {1, 10, 10, 1, 10, 10, 1};
+
+    // Bit d is set if day d of the month (from 0) is present
+    private int mDays;
+    private final int[][] mValues = new int[VALUE_COLUMNS.length][MAX_DAYS];
+
+    /**
+     * @return the month the date falls in, as year * 12 + month.
+     */
+    static int getMonth(long date) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(date);
+        return calendar.get(Calendar.YEAR) * 12 + calendar.get(Calendar.MONTH);
+    }
+
+    /**
+     * @return the day of the month the date falls on, from 0.
+     */
+    static int getDay(long date) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(date);
+        return calendar.get(Calendar.DAY_OF_MONTH) - 1;
+    }
+
+    /**
+     * @return the normalized date of the day of the month.
+     */
+    static long getDate(int month, int day) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(month / 12, month % 12, day + 1);
+        return WeatherContract.normalizeDate(calendar.getTimeInMillis());
+    }
+
+    /**
+     * Adds the day, or replaces it if it's already present.
+     *
+     * @param day a weather row, with at least the date
+     */
+    void put(ContentValues day) {
+        int dayOfMonth = getDay(day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+        for (int i = 0; i < VALUE_COLUMNS.length; i++) {
+            Double value = day.getAsDouble(VALUE_COLUMNS[i]);
+            mValues[i][dayOfMonth] = value == null ? 0 : (int) Math.round(value * SCALES[i]);
+        }
+        mDays |= 1 << dayOfMonth;
+    }
+
+    /**
+     * @return the bitmask of the days present.
+     */
+    int getDays() {
+        return mDays;
+    }
+
+    /**
+     * @param column an index into {@link #VALUE_COLUMNS}
+     */
+    double getValue(int column, int day) {
+        return mValues[column][day] / (double) SCALES[column];
+    }
+
+    /**
+     * @return whether the column's values are whole numbers.
+     */
+    static boolean isWhole(int column) {
+        return SCALES[column] == 1;
+    }
+
+    byte[] encode() {
+        int count = Integer.bitCount(mDays);
+        ByteBuffer buffer = ByteBuffer.allocate(
+                HEADER_SIZE + VALUE_COLUMNS.length * (1 + 4 + 4 * count));
+        buffer.put(VERSION).putInt(mDays);
+        if (count > 0) {
+            int first = Integer.numberOfTrailingZeros(mDays);
+            for (int[] values : mValues) {
+                int width = getDeltaWidth(values, first);
+                buffer.put((byte) width).putInt(values[first]);
+                int previous = values[first];
+                for (int day = first + 1; day < MAX_DAYS; day++) {
+                    if ((mDays & (1 << day)) != 0) {
+                        putDelta(buffer, width, values[day] - previous);
+                        previous = values[day];
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    static ArchiveBlock decode(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.get() != VERSION) {
+            throw new IllegalArgumentException("Unknown archive block version");
+        }
+        ArchiveBlock block = new ArchiveBlock();
+        block.mDays = buffer.getInt();
+        if (block.mDays != 0) {
+            int first = Integer.numberOfTrailingZeros(block.mDays);
+            for (int[] values : block.mValues) {
+                int width = buffer.get();
+                int value = buffer.getInt();
+                values[first] = value;
+                for (int day = first + 1; day < MAX_DAYS; day++) {
+                    if ((block.mDays & (1 << day)) != 0) {
+                        value += getDelta(buffer, width);
+                        values[day] = value;
+                    }
+                }
+            }
+        }
+        return block;
+    }
+
+    /**
+     * @return the days present in an encoded block, without decoding the rest of it.
+     */
+    static int decodeDays(byte[] data) {
+        return ByteBuffer.wrap(data, 1, 4).getInt();
+    }
+
+    /**
+     * @return the fewest bytes every delta of the column fits in: 1, 2 or 4.
+     */
+    private int getDeltaWidth(int[] values, int first) {
+        int width = 1;
+        int previous = values[first];
+        for (int day = first + 1; day < MAX_DAYS; day++) {
+            if ((mDays & (1 << day)) != 0) {
+                int delta = values[day] - previous;
+                previous = values[day];
+                if (delta < Short.MIN_VALUE || delta > Short.MAX_VALUE) {
+                    return 4;
+                }
+                if (delta < Byte.MIN_VALUE || delta > Byte.MAX_VALUE) {
+                    width = 2;
+                }
+            }
+        }
+        return width;
+    }
+
+    private static void putDelta(ByteBuffer buffer, int width, int delta) {
+        switch (width) {
+            case 1:
+                buffer.put((byte) delta);
+                break;
+            case 2:
+                buffer.putShort((short) delta);
+                break;
+            default:
+                buffer.putInt(delta);
+        }
+    }
+
+    private static int getDelta(ByteBuffer buffer, int width) {
+        switch (width) {
+            case 1:
+                return buffer.get();
+            case 2:
+                return buffer.getShort();
+            case 4:
+                return buffer.getInt();
+            default:
+                throw new IllegalArgumentException("Bad archive delta width " + width);
+        }
+    }
+}
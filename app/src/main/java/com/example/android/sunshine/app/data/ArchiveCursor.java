@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a range of archived days back out of their location-month blocks.  Only the block
+ * the cursor is on is decoded, so reading a range of years holds one month of days at a time.
+ */
+class ArchiveCursor extends AbstractCursor {
+
+    private final Cursor mBlocks;
+    private final int mMonthColumn;
+    private final int mDataColumn;
+    private final String[] mColumnNames;
+    // For each column, its index in ArchiveBlock.VALUE_COLUMNS, or -1 for the date
+    private final int[] mValueColumns;
+    private final int mStartKey;
+    private final int mEndKey;
+
+    // The blocks with days in range, by their position in mBlocks, and the position of the
+    // first of their days in this cursor
+    private final int[] mBlockPositions;
+    private final int[] mBlockStarts;
+    private final int mCount;
+
+    // The block decoded last, and its days in range
+    private int mBlock = -1;
+    private int mMonth;
+    private ArchiveBlock mDecoded;
+    private int[] mDays;
+    private int mDay;
+
+    /**
+     * @param blocks the archive rows to read, in month order, with at least the month and data
+     * @param projection columns from {@link WeatherContract.ArchiveEntry#COLUMNS}, or null
+     *                   for all of them
+     * @param startKey the first day to read, as a {@link #getDayKey day key}
+     * @param endKey the last day to read
+     */
+    ArchiveCursor(Cursor blocks, String[] projection, int startKey, int endKey) {
+        mBlocks = blocks;
+        mMonthColumn = blocks.getColumnIndexOrThrow(WeatherContract.ArchiveEntry.COLUMN_MONTH);
+        mDataColumn = blocks.getColumnIndexOrThrow(WeatherContract.ArchiveEntry.COLUMN_DATA);
+        mColumnNames = projection != null ? projection : WeatherContract.ArchiveEntry.COLUMNS;
+        mValueColumns = new int[mColumnNames.length];
+        List<String> archived = Arrays.asList(WeatherContract.ArchiveEntry.COLUMNS);
+        for (int i = 0; i < mColumnNames.length; i++) {
+            int index = archived.indexOf(mColumnNames[i]);
+            if (index == -1) {
+                throw new IllegalArgumentException("Not archived: " + mColumnNames[i]);
+            }
+            // COLUMNS is the date, then ArchiveBlock.VALUE_COLUMNS
+            mValueColumns[i] = index - 1;
+        }
+        mStartKey = startKey;
+        mEndKey = endKey;
+
+        // Counting reads only each block's header
+        List<Integer> positions = new ArrayList<Integer>();
+        List<Integer> starts = new ArrayList<Integer>();
+        int count = 0;
+        while (blocks.moveToNext()) {
+            int inRange = Integer.bitCount(ArchiveBlock.decodeDays(blocks.getBlob(mDataColumn))
+                    & getRangeMask(blocks.getInt(mMonthColumn)));
+            if (inRange > 0) {
+                positions.add(blocks.getPosition());
+                starts.add(count);
+                count += inRange;
+            }
+        }
+        mBlockPositions = toArray(positions);
+        mBlockStarts = toArray(starts);
+        mCount = count;
+    }
+
+    /**
+     * @return a key for the day that orders days by date, month by month.
+     */
+    static int getDayKey(int month, int day) {
+        return month * 32 + day;
+    }
+
+    /**
+     * @return the bitmask of the month's days in range.
+     */
+    private int getRangeMask(int month) {
+        int mask = 0;
+        for (int day = 0; day < ArchiveBlock.MAX_DAYS; day++) {
+            int key = getDayKey(month, day);
+            if (key >= mStartKey && key <= mEndKey) {
+                mask |= 1 << day;
+            }
+        }
+        return mask;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        int block = Arrays.binarySearch(mBlockStarts, newPosition);
+        if (block < 0) {
+            // Not a block's first day: in the block before the insertion point
+            block = -block - 2;
+        }
+        if (block != mBlock) {
+            mBlocks.moveToPosition(mBlockPositions[block]);
+            mMonth = mBlocks.getInt(mMonthColumn);
+            mDecoded = ArchiveBlock.decode(mBlocks.getBlob(mDataColumn));
+            int days = mDecoded.getDays() & getRangeMask(mMonth);
+            mDays = new int[Integer.bitCount(days)];
+            for (int day = 0, i = 0; day < ArchiveBlock.MAX_DAYS; day++) {
+                if ((days & (1 << day)) != 0) {
+                    mDays[i++] = day;
+                }
+            }
+            mBlock = block;
+        }
+        mDay = mDays[newPosition - mBlockStarts[block]];
+        return true;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    private boolean isWhole(int column) {
+        return mValueColumns[column] == -1 || ArchiveBlock.isWhole(mValueColumns[column]);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        if (mValueColumns[column] == -1) {
+            return ArchiveBlock.getDate(mMonth, mDay);
+        }
+        return mDecoded.getValue(mValueColumns[column], mDay);
+    }
+
+    @Override
+    public long getLong(int column) {
+        if (mValueColumns[column] == -1) {
+            return ArchiveBlock.getDate(mMonth, mDay);
+        }
+        return Math.round(getDouble(column));
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public String getString(int column) {
+        return isWhole(column) ? Long.toString(getLong(column)) : Double.toString(getDouble(column));
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return false;
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public int getType(int column) {
+        return isWhole(column) ? FIELD_TYPE_INTEGER : FIELD_TYPE_FLOAT;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        mBlocks.close();
+    }
+}
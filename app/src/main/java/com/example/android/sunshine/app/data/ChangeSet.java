@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What a transaction changed, collected by the {@link WeatherProvider} as it writes and turned
+ * into change notifications once the transaction is over.  Notifications are as narrow as the
+ * change: a location's forecast is only notified to the loaders of that location, and a
+ * single changed day only to the detail view of that day (and, through its ancestor, the
+ * location's list), so a sync of one location doesn't send every other location's loaders
+ * and detail views back to the database.
+ */
+class ChangeSet {
+
+    // Day numbers of changed weather rows, by location id
+    private final Map<Long, Set<Integer>> mWeatherDays = new HashMap<Long, Set<Integer>>();
+    // Location settings by id, as far as they're known yet
+    private final Map<Long, String> mSettings = new HashMap<Long, String>();
+    // Ids of changed location rows
+    private final Set<Long> mLocationRows = new HashSet<Long>();
+    // Ids of the location rows among them whose forecast changed with them
+    private final Set<Long> mForecastLocationRows = new HashSet<Long>();
+    // Settings whose whole forecast changed, by way of the location columns it's joined with
+    private final Set<String> mForecastSettings = new HashSet<String>();
+    // Anything else to notify as it is
+    private final Set<Uri> mUris = new LinkedHashSet<Uri>();
+    // Location ids found or created by setting, to be cached once the write has committed
+    private final Map<String, Long> mLocationIds = new HashMap<String, Long>();
+
+    void addWeather(long locationId, int day) {
+        Set<Integer> days = mWeatherDays.get(locationId);
+        if (days == null) {
+            days = new HashSet<Integer>();
+            mWeatherDays.put(locationId, days);
+        }
+        days.add(day);
+    }
+
+    /**
+     * Adds the location and day of every weather row the selection picks, as they are before
+     * the write and, if the write moves them, as they will be after.
+     *
+     * @param newValues the values the rows are updated with, or null if they're deleted
+     */
+    void addWeather(SQLiteDatabase db, String selection, String[] selectionArgs,
+                    ContentValues newValues) {
+        Long newLocationId = null;
+        Integer newDay = null;
+        if (newValues != null) {
+            newLocationId = newValues.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            newDay = newValues.getAsInteger(WeatherContract.WeatherEntry.COLUMN_DAY);
+        }
+        Cursor cursor = db.query(true, WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        WeatherContract.WeatherEntry.COLUMN_DAY},
+                selection, selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                long locationId = cursor.getLong(0);
+                int day = cursor.getInt(1);
+                addWeather(locationId, day);
+                if (newLocationId != null || newDay != null) {
+                    addWeather(newLocationId != null ? newLocationId : locationId,
+                            newDay != null ? newDay : day);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Adds every location row the selection picks, with its setting as it is before the write.
+     *
+     * @param forecastChanged whether the write changes columns shown with the forecast
+     */
+    void addLocations(SQLiteDatabase db, String selection, String[] selectionArgs,
+                      boolean forecastChanged) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                mLocationRows.add(cursor.getLong(0));
+                mSettings.put(cursor.getLong(0), cursor.getString(1));
+                if (forecastChanged) {
+                    mForecastLocationRows.add(cursor.getLong(0));
+                    mForecastSettings.add(cursor.getString(1));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    void addLocation(long locationId) {
+        mLocationRows.add(locationId);
+        mForecastLocationRows.add(locationId);
+    }
+
+    /**
+     * Marks a location's whole forecast changed, by its setting.
+     */
+    void addForecast(String locationSetting) {
+        mForecastSettings.add(locationSetting);
+    }
+
+    void addUri(Uri uri) {
+        mUris.add(uri);
+    }
+
+    void addLocationId(String locationSetting, long locationId) {
+        mLocationIds.put(locationSetting, locationId);
+    }
+
+    /**
+     * @return the location ids to cache, by setting.
+     */
+    Map<String, Long> getLocationIds() {
+        return mLocationIds;
+    }
+
+    void addAll(ChangeSet other) {
+        for (Map.Entry<Long, Set<Integer>> entry : other.mWeatherDays.entrySet()) {
+            for (Integer day : entry.getValue()) {
+                addWeather(entry.getKey(), day);
+            }
+        }
+        mSettings.putAll(other.mSettings);
+        mLocationRows.addAll(other.mLocationRows);
+        mForecastLocationRows.addAll(other.mForecastLocationRows);
+        mForecastSettings.addAll(other.mForecastSettings);
+        mUris.addAll(other.mUris);
+        mLocationIds.putAll(other.mLocationIds);
+    }
+
+    /**
+     * @return the ids of every location whose forecast changed, by way of its weather or of
+     * the location columns shown with it.  A location row whose sync bookkeeping alone
+     * changed isn't one of them.
+     */
+    Set<Long> getChangedLocations() {
+        Set<Long> locationIds = new HashSet<Long>(mWeatherDays.keySet());
+        locationIds.addAll(mForecastLocationRows);
+        return locationIds;
+    }
+
+    /**
+     * @return the ids of every changed location row, whichever columns changed.
+     */
+    Set<Long> getLocationRows() {
+        return mLocationRows;
+    }
+
+    /**
+     * @return the URIs to notify, at most one per location's forecast.  Settings not yet known
+     * are looked up, so call this once the transaction has committed.
+     */
+    Set<Uri> getNotificationUris(SQLiteDatabase db) {
+        lookUpSettings(db);
+        Set<Uri> uris = new LinkedHashSet<Uri>();
+        for (String locationSetting : mForecastSettings) {
+            uris.add(WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting));
+        }
+        for (Map.Entry<Long, Set<Integer>> entry : mWeatherDays.entrySet()) {
+            String locationSetting = mSettings.get(entry.getKey());
+            Set<Integer> days = entry.getValue();
+            if (locationSetting == null) {
+                // Weather for a location that isn't stored: nobody can be looking at it by
+                // setting, but anyone watching all weather should hear of it
+                uris.add(WeatherContract.WeatherEntry.CONTENT_URI);
+            } else if (mForecastSettings.contains(locationSetting)) {
+                // Already notified for the whole forecast
+            } else if (days.size() == 1) {
+                uris.add(WeatherContract.WeatherEntry.buildWeatherLocationWithDay(
+                        locationSetting, days.iterator().next()));
+            } else {
+                uris.add(WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting));
+            }
+        }
+        for (Long locationId : mLocationRows) {
+            uris.add(WeatherContract.LocationEntry.buildLocationUri(locationId));
+        }
+        uris.addAll(mUris);
+        return uris;
+    }
+
+    private void lookUpSettings(SQLiteDatabase db) {
+        Set<Long> unknown = new HashSet<Long>(mWeatherDays.keySet());
+        unknown.removeAll(mSettings.keySet());
+        if (unknown.isEmpty()) {
+            return;
+        }
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                WeatherContract.LocationEntry._ID + " IN (" + TextUtils.join(",", unknown) + ")",
+                null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                mSettings.put(cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the row id of each location setting, so the sync doesn't ask the provider for it
+ * on every run.  Ids are only ever put here by the {@link WeatherProvider}, once the
+ * transaction that found or created the row is certain to commit (if it then fails to, the
+ * provider clears the cache), and the provider clears the cache whenever
+ * location rows are deleted or re-keyed, so a hit can be trusted without going back to the
+ * database.
+ *
+ * The cache lives in the process that hosts the provider; the sync runs in that same process.
+ */
+public class LocationIdCache {
+
+    private static final LocationIdCache sInstance = new LocationIdCache();
+
+    private final Map<String, Long> mIds = new HashMap<String, Long>();
+
+    public static LocationIdCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @return the row id of the location, or -1 if it isn't cached.
+     */
+    public synchronized long get(String locationSetting) {
+        Long id = mIds.get(locationSetting);
+        return id != null ? id : -1;
+    }
+
+    synchronized void put(String locationSetting, long id) {
+        mIds.put(locationSetting, id);
+    }
+
+    /**
+     * Forgets every cached id.  Called by the provider after location rows change in a way
+     * that could make an entry wrong, and by anyone who finds an id no longer exists.
+     */
+    public synchronized void invalidate() {
+        mIds.clear();
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.annotation.IntDef;
+
+import com.example.android.sunshine.app.data.WeatherContract.DiagnosticsEntry;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the provider's calls by URI code and operation, with their latency and row counts in
+ * the fixed buckets of {@link DiagnosticsEntry}.  Every counter lives in one AtomicLongArray,
+ * so recording a call takes no lock and allocates nothing.  A reader may see a call counted in
+ * some of its counters and not yet in others, which a histogram can live with.
+ */
+class ProviderStats {
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({OP_QUERY, OP_INSERT, OP_BULK_INSERT, OP_UPDATE, OP_DELETE})
+    @interface Operation {}
+
+    static final int OP_QUERY = 0;
+    static final int OP_INSERT = 1;
+    static final int OP_BULK_INSERT = 2;
+    static final int OP_UPDATE = 3;
+    static final int OP_DELETE = 4;
+
+    private static final int NUM_OPS = 5;
+    private static final String[] OPERATION_NAMES = {
+            DiagnosticsEntry.OPERATION_QUERY,
+            DiagnosticsEntry.OPERATION_INSERT,
+            DiagnosticsEntry.OPERATION_BULK_INSERT,
+            DiagnosticsEntry.OPERATION_UPDATE,
+            DiagnosticsEntry.OPERATION_DELETE
+    };
+
+    // Each URI code and operation has a slot of counters: these four, then the latency
+    // histogram, then the row count histogram
+    private static final int CALLS = 0;
+    private static final int ROWS = 1;
+    private static final int TOTAL_NANOS = 2;
+    private static final int MAX_NANOS = 3;
+    private static final int LATENCY_BUCKETS = 4;
+    private static final int NUM_LATENCY_BUCKETS = DiagnosticsEntry.LATENCY_BUCKET_MICROS.length + 1;
+    private static final int ROW_BUCKETS = LATENCY_BUCKETS + NUM_LATENCY_BUCKETS;
+    private static final int NUM_ROW_BUCKETS = DiagnosticsEntry.ROW_BUCKETS.length + 1;
+    private static final int SLOT_SIZE = ROW_BUCKETS + NUM_ROW_BUCKETS;
+
+    private final int[] mUriCodes;
+    private final String[] mPaths;
+    private final AtomicLongArray mCounters;
+
+    /**
+     * @param uriCodes the codes of the URIs to count calls to; calls to any other are ignored
+     * @param paths the pattern each code matches, such as "weather/*", for reporting
+     */
+    ProviderStats(int[] uriCodes, String[] paths) {
+        mUriCodes = uriCodes;
+        mPaths = paths;
+        mCounters = new AtomicLongArray(uriCodes.length * NUM_OPS * SLOT_SIZE);
+    }
+
+    /**
+     * Counts one call.
+     *
+     * @param rows the rows the call returned, inserted, updated or deleted
+     */
+    void record(int uriCode, @Operation int operation, long nanos, long rows) {
+        int slot = getSlot(uriCode, operation);
+        if (slot == -1) {
+            return;
+        }
+        mCounters.incrementAndGet(slot + CALLS);
+        mCounters.addAndGet(slot + ROWS, rows);
+        mCounters.addAndGet(slot + TOTAL_NANOS, nanos);
+        long max = mCounters.get(slot + MAX_NANOS);
+        while (nanos > max && !mCounters.compareAndSet(slot + MAX_NANOS, max, nanos)) {
+            max = mCounters.get(slot + MAX_NANOS);
+        }
+        mCounters.incrementAndGet(slot + LATENCY_BUCKETS
+                + findBucket(DiagnosticsEntry.LATENCY_BUCKET_MICROS, nanos / 1000));
+        mCounters.incrementAndGet(slot + ROW_BUCKETS
+                + findBucket(DiagnosticsEntry.ROW_BUCKETS, rows));
+    }
+
+    /**
+     * @return the number of calls counted, or 0 if the URI code isn't counted.
+     */
+    long getCalls(int uriCode, @Operation int operation) {
+        int slot = getSlot(uriCode, operation);
+        return slot == -1 ? 0 : mCounters.get(slot + CALLS);
+    }
+
+    /**
+     * Zeroes every counter.  Calls being counted meanwhile may be partly kept.
+     */
+    void reset() {
+        for (int i = 0; i < mCounters.length(); i++) {
+            mCounters.set(i, 0);
+        }
+    }
+
+    /**
+     * @return a row of {@link DiagnosticsEntry} columns for each URI code and operation that has
+     * been called, in the order the codes were given.
+     */
+    Cursor toCursor() {
+        String[] columns = new String[6 + NUM_LATENCY_BUCKETS + NUM_ROW_BUCKETS];
+        columns[0] = DiagnosticsEntry.COLUMN_PATH;
+        columns[1] = DiagnosticsEntry.COLUMN_OPERATION;
+        columns[2] = DiagnosticsEntry.COLUMN_CALLS;
+        columns[3] = DiagnosticsEntry.COLUMN_TOTAL_MICROS;
+        columns[4] = DiagnosticsEntry.COLUMN_MAX_MICROS;
+        columns[5] = DiagnosticsEntry.COLUMN_ROWS;
+        for (int i = 0; i < NUM_LATENCY_BUCKETS; i++) {
+            columns[6 + i] = DiagnosticsEntry.getLatencyColumn(i);
+        }
+        for (int i = 0; i < NUM_ROW_BUCKETS; i++) {
+            columns[6 + NUM_LATENCY_BUCKETS + i] = DiagnosticsEntry.getRowsColumn(i);
+        }
+
+        MatrixCursor cursor = new MatrixCursor(columns);
+        for (int code = 0; code < mUriCodes.length; code++) {
+            for (int operation = 0; operation < NUM_OPS; operation++) {
+                int slot = (code * NUM_OPS + operation) * SLOT_SIZE;
+                if (mCounters.get(slot + CALLS) == 0) {
+                    continue;
+                }
+                Object[] row = new Object[columns.length];
+                row[0] = mPaths[code];
+                row[1] = OPERATION_NAMES[operation];
+                row[2] = mCounters.get(slot + CALLS);
+                row[3] = mCounters.get(slot + TOTAL_NANOS) / 1000;
+                row[4] = mCounters.get(slot + MAX_NANOS) / 1000;
+                row[5] = mCounters.get(slot + ROWS);
+                for (int i = 0; i < NUM_LATENCY_BUCKETS + NUM_ROW_BUCKETS; i++) {
+                    row[6 + i] = mCounters.get(slot + LATENCY_BUCKETS + i);
+                }
+                cursor.addRow(row);
+            }
+        }
+        return cursor;
+    }
+
+    private int getSlot(int uriCode, int operation) {
+        // A handful of codes, so a linear search beats anything that would need boxing
+        for (int code = 0; code < mUriCodes.length; code++) {
+            if (mUriCodes[code] == uriCode) {
+                return (code * NUM_OPS + operation) * SLOT_SIZE;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the first bound the value doesn't exceed, or bounds.length if it
+     * exceeds them all.
+     */
+    private static int findBucket(long[] bounds, long value) {
+        int bucket = 0;
+        while (bucket < bounds.length && value > bounds[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The results of the provider's per-location weather queries, kept in memory so the list,
+ * the detail view, the notification and the share action asking for the same forecast again
+ * don't go back to SQLite.  Results are held as copies, handed out as fresh
+ * {@link MatrixCursor}s, and the least recently used are dropped past {@link #MAX_ENTRIES}.
+ *
+ * Each result is filed under the row id of its location, and the provider drops a location's
+ * results once a write that touches it commits.  A write of the sync's bookkeeping columns
+ * alone only drops the results that read them.  Since a query can read the database just
+ * before such a write commits and finish after it, a result is only kept if nothing was
+ * invalidated while it was being read; see {@link #getGeneration()}.
+ */
+class QueryCache {
+
+    static final int MAX_ENTRIES = 16;
+    // Results longer than this aren't worth the memory; the forecast is two weeks
+    static final int MAX_ROWS = 64;
+
+    private static class Entry {
+        final long locationId;
+        final String[] columns;
+        final List<Object[]> rows;
+
+        Entry(long locationId, String[] columns, List<Object[]> rows) {
+            this.locationId = locationId;
+            this.columns = columns;
+            this.rows = rows;
+        }
+    }
+
+    private final Map<String, Entry> mEntries = new LinkedHashMap<String, Entry>(
+            MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    // Bumped by every invalidation
+    private long mGeneration;
+    private int mHitCount;
+
+    /**
+     * @return false where a cursor can't tell the type of its values, before Honeycomb, and
+     * copies couldn't be made faithfully.
+     */
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    static String buildKey(Uri uri, String[] projection, String sortOrder) {
+        return uri + "|" + (projection == null ? "*" : TextUtils.join(",", projection)) + "|"
+                + sortOrder;
+    }
+
+    /**
+     * @return a copy of the cached result, or null if there is none.
+     */
+    synchronized Cursor get(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        mHitCount++;
+        MatrixCursor cursor = new MatrixCursor(entry.columns, entry.rows.size());
+        for (Object[] row : entry.rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * To be read before querying the database for a result that may be cached.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Copies the cursor's rows into the cache, unless something was invalidated since
+     * {@code generation} was read, and rewinds it for the caller.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    void put(String key, long locationId, Cursor cursor, long generation) {
+        if (cursor.getCount() > MAX_ROWS) {
+            return;
+        }
+        String[] columns = cursor.getColumnNames();
+        List<Object[]> rows = new ArrayList<Object[]>(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            Object[] row = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[i] = cursor.getLong(i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[i] = cursor.getDouble(i);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        row[i] = cursor.getString(i);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        row[i] = cursor.getBlob(i);
+                        break;
+                    default:
+                        row[i] = null;
+                }
+            }
+            rows.add(row);
+        }
+        cursor.moveToPosition(-1);
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mEntries.put(key, new Entry(locationId, columns, rows));
+            }
+        }
+    }
+
+    /**
+     * Drops the results of the given locations.
+     */
+    synchronized void invalidate(Collection<Long> locationIds) {
+        mGeneration++;
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while (entries.hasNext()) {
+            if (locationIds.contains(entries.next().locationId)) {
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the results of the given locations that read any of the columns, leaving those
+     * that don't to be answered still.
+     */
+    synchronized void invalidate(Collection<Long> locationIds, String[] columns) {
+        mGeneration++;
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            if (locationIds.contains(entry.locationId) && readsAny(entry, columns)) {
+                entries.remove();
+            }
+        }
+    }
+
+    private static boolean readsAny(Entry entry, String[] columns) {
+        for (String read : entry.columns) {
+            for (String column : columns) {
+                if (read.equals(column)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mEntries.clear();
+    }
+
+    synchronized int getHitCount() {
+        return mHitCount;
+    }
+}
@@ -19,8 +19,11 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
+import android.text.format.DateUtils;
 import android.text.format.Time;
 
+import java.util.TimeZone;
+
 /**
  * Defines table and column names for the weather database.
  */
@@ -43,15 +46,53 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_SYNC_METRICS = "sync_metrics";
+    public static final String PATH_UPSERT = "upsert";
+    public static final String PATH_ARCHIVE = "archive";
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_CONDITIONS = "conditions";
+    public static final String PATH_DIAGNOSTICS = "diagnostics";
+
+    // Provider method, for ContentResolver.call, that checkpoints the database's write-ahead
+    // log.  The sync calls it once it has finished writing.
+    public static final String METHOD_CHECKPOINT = "checkpoint";
+
+    // Provider method that sets how long a query may take, in milliseconds given as the arg,
+    // before it's logged with its query plan; "0" stops the logging.  Without an arg it only
+    // answers the current setting, as EXTRA_SLOW_QUERY_MILLIS.
+    public static final String METHOD_SLOW_QUERY_MILLIS = "slow_query_millis";
+    public static final String EXTRA_SLOW_QUERY_MILLIS = "slow_query_millis";
+
+    // Days are matched, ranged and sorted by their day number: the Julian day of the local
+    // date they fall on, as Time.getJulianDay counts it.  Unlike a date normalized to midnight,
+    // a stored day number means the same day whatever time zone it's read in later.
+    public static int getDayNumber(long date) {
+        return getDayNumber(date, TimeZone.getDefault());
+    }
+
+    /**
+     * @return the day number of the date in the given zone.  TimeZone.getDefault() returns a
+     * copy, so code working out many days should get it once and pass it in.
+     */
+    public static int getDayNumber(long date, TimeZone zone) {
+        return Time.getJulianDay(date, zone.getOffset(date) / 1000);
+    }
 
-    // To make it easy to query for the exact date, we normalize all dates that go into
-    // the database to the start of the the Julian day at UTC.
+    /**
+     * @return the first millisecond of the day in the given zone.
+     */
+    public static long getStartOfDay(int dayNumber, TimeZone zone) {
+        long utcStart = (dayNumber - Time.EPOCH_JULIAN_DAY) * DateUtils.DAY_IN_MILLIS;
+        // The offset at midnight UTC is only a guess: a change to or from daylight saving time
+        // may fall between that and local midnight, so the offset is taken again from there
+        long start = utcStart - zone.getOffset(utcStart);
+        return utcStart - zone.getOffset(start);
+    }
+
+    // The date column still holds the start of the row's day, for display.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        TimeZone zone = TimeZone.getDefault();
+        return getStartOfDay(getDayNumber(startDate, zone), zone);
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -81,6 +122,21 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // openweathermap's numeric id for the city, which lets several locations be fetched in
+        // one group request.  Null until the first forecast for the location has been stored.
+        public static final String COLUMN_CITY_ID = "city_id";
+
+        // HTTP validators from the last forecast response for this location, sent back as
+        // If-None-Match / If-Modified-Since so an unchanged forecast costs a 304 and nothing more.
+        // Either can be null if the server didn't send it.
+        public static final String COLUMN_ETAG = "etag";
+        public static final String COLUMN_LAST_MODIFIED = "last_modified";
+
+        // Inserting here adds the location only if its setting isn't stored yet, and either way
+        // answers the URI of the row that holds it.
+        public static final Uri UPSERT_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_UPSERT).build();
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -103,6 +159,9 @@ public class WeatherContract {
         public static final String COLUMN_LOC_KEY = "location_id";
         // Date, stored as long in milliseconds since the epoch
         public static final String COLUMN_DATE = "date";
+        // The date's day number, which rows are keyed by.  The provider works out whichever
+        // of the two a row is written without from the other.
+        public static final String COLUMN_DAY = "day";
         // Weather id as returned by API, to identify the icon to be used
         public static final String COLUMN_WEATHER_ID = "weather_id";
 
@@ -126,6 +185,17 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Hash of the weather columns above, set by the sync so it can tell an unchanged day
+        // from a changed one without reading the row back.  Null for rows written elsewhere.
+        public static final String COLUMN_CONTENT_HASH = "content_hash";
+
+        // Query parameters that page through a location's weather.  A page holds at most
+        // PARAM_LIMIT days, strictly after PARAM_AFTER_DAY, the day number of the last day of
+        // the page before it, so reading a page costs the same however much history is stored.
+        // Paged queries are always sorted by ascending day; any other sort order is ignored.
+        public static final String PARAM_AFTER_DAY = "after_day";
+        public static final String PARAM_LIMIT = "limit";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -139,30 +209,335 @@ public class WeatherContract {
 
         public static Uri buildWeatherLocationWithStartDate(
                 String locationSetting, long startDate) {
-            long normalizedDate = normalizeDate(startDate);
+            return buildWeatherLocationWithStartDay(locationSetting, getDayNumber(startDate));
+        }
+
+        public static Uri buildWeatherLocationWithStartDay(String locationSetting, int startDay) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_DAY, Integer.toString(startDay)).build();
+        }
+
+        /**
+         * @return the first page of weather for the location, starting from the given day.
+         */
+        public static Uri buildWeatherLocationWithStartDate(
+                String locationSetting, long startDate, int limit) {
+            return buildWeatherLocationWithStartDay(locationSetting, getDayNumber(startDate),
+                    limit);
+        }
+
+        public static Uri buildWeatherLocationWithStartDay(
+                String locationSetting, int startDay, int limit) {
+            return buildWeatherLocationWithStartDay(locationSetting, startDay).buildUpon()
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        /**
+         * @param afterDay the day number of the last day on the page before
+         * @return the page of weather for the location that follows it.
+         */
+        public static Uri buildWeatherLocationPage(
+                String locationSetting, int afterDay, int limit) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
-                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
+                    .appendQueryParameter(PARAM_AFTER_DAY, Integer.toString(afterDay))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
         }
 
+        /**
+         * @return the URI of the location's weather on the day the date falls on, here.
+         */
         public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
+            return buildWeatherLocationWithDay(locationSetting, getDayNumber(date));
+        }
+
+        /**
+         * @return the URI of the location's weather on the day with the given day number, as
+         * read from COLUMN_DAY.
+         */
+        public static Uri buildWeatherLocationWithDay(String locationSetting, int day) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
-                    .appendPath(Long.toString(normalizeDate(date))).build();
+                    .appendPath(Integer.toString(day)).build();
         }
 
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
 
-        public static long getDateFromUri(Uri uri) {
-            return Long.parseLong(uri.getPathSegments().get(2));
+        public static int getDayFromUri(Uri uri) {
+            return Integer.parseInt(uri.getPathSegments().get(2));
+        }
+
+        public static int getStartDayFromUri(Uri uri) {
+            String dayString = uri.getQueryParameter(COLUMN_DAY);
+            if (null != dayString && dayString.length() > 0)
+                return Integer.parseInt(dayString);
+            else
+                return 0;
+        }
+
+        public static int getAfterDayFromUri(Uri uri) {
+            String dayString = uri.getQueryParameter(PARAM_AFTER_DAY);
+            if (null != dayString && dayString.length() > 0)
+                return Integer.parseInt(dayString);
+            else
+                return 0;
+        }
+
+        /**
+         * @return the page size, or 0 if the query isn't limited to one.
+         */
+        public static int getLimitFromUri(Uri uri) {
+            String limitString = uri.getQueryParameter(PARAM_LIMIT);
+            if (null != limitString && limitString.length() > 0)
+                return Integer.parseInt(limitString);
+            else
+                return 0;
+        }
+    }
+
+    /*
+        Inner class that defines the summaries of a location's weather over a range of days,
+        computed by the database from the days stored, so nobody has to read every day to
+        summarize them.  weather/<location setting>/stats is a single row of the columns below;
+        weather/<location setting>/conditions is a row per weather id, with
+        WeatherEntry.COLUMN_WEATHER_ID and COLUMN_DAY_COUNT, most frequent first.  Both cover
+        the days between the optional PARAM_FROM and PARAM_TO dates, inclusive.  Over no days,
+        the count is 0 and the rest null.  Like the other date URIs, the range is carried as day
+        numbers.
+     */
+    public static final class WeatherStatsEntry {
+
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+        public static final String CONDITIONS_CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CONDITIONS;
+
+        public static final String COLUMN_DAY_COUNT = "day_count";
+
+        // Lowest of the minimum and highest of the maximum temperatures, and the mean of each
+        public static final String COLUMN_LOWEST_TEMP = "lowest_temp";
+        public static final String COLUMN_HIGHEST_TEMP = "highest_temp";
+        public static final String COLUMN_MEAN_MIN_TEMP = "mean_min_temp";
+        public static final String COLUMN_MEAN_MAX_TEMP = "mean_max_temp";
+
+        public static final String COLUMN_MIN_HUMIDITY = "min_humidity";
+        public static final String COLUMN_MAX_HUMIDITY = "max_humidity";
+        public static final String COLUMN_MEAN_HUMIDITY = "mean_humidity";
+
+        public static final String COLUMN_MIN_PRESSURE = "min_pressure";
+        public static final String COLUMN_MAX_PRESSURE = "max_pressure";
+        public static final String COLUMN_MEAN_PRESSURE = "mean_pressure";
+
+        public static final String PARAM_FROM = "from";
+        public static final String PARAM_TO = "to";
+
+        public static Uri buildStatsUri(String locationSetting, long fromDate, long toDate) {
+            return buildRangeUri(PATH_STATS, locationSetting, fromDate, toDate);
+        }
+
+        public static Uri buildConditionsUri(String locationSetting, long fromDate, long toDate) {
+            return buildRangeUri(PATH_CONDITIONS, locationSetting, fromDate, toDate);
+        }
+
+        /*
+            A toDate of Long.MAX_VALUE leaves the range open-ended.
+         */
+        private static Uri buildRangeUri(String path, String locationSetting, long fromDate,
+                                         long toDate) {
+            Uri.Builder builder = WeatherEntry.CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(path)
+                    .appendQueryParameter(PARAM_FROM, Integer.toString(getDayNumber(fromDate)));
+            if (toDate != Long.MAX_VALUE) {
+                builder.appendQueryParameter(PARAM_TO, Integer.toString(getDayNumber(toDate)));
+            }
+            return builder.build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static int getFromDayFromUri(Uri uri) {
+            String dayString = uri.getQueryParameter(PARAM_FROM);
+            if (null != dayString && dayString.length() > 0)
+                return Integer.parseInt(dayString);
+            else
+                return 0;
+        }
+
+        /**
+         * @return the day number ending the range, or Integer.MAX_VALUE if it's open-ended.
+         */
+        public static int getToDayFromUri(Uri uri) {
+            String dayString = uri.getQueryParameter(PARAM_TO);
+            if (null != dayString && dayString.length() > 0)
+                return Integer.parseInt(dayString);
+            else
+                return Integer.MAX_VALUE;
+        }
+    }
+
+    /* Inner class that defines the table contents of the weather archive table */
+    public static final class ArchiveEntry implements BaseColumns {
+
+        // Past days, kept once the forecast has moved on from them.  Inserting a weather row
+        // here archives that day; archive/<location setting> reads days back, in date order,
+        // with the weather table's date column and the ones in COLUMNS, between the optional
+        // PARAM_START_DATE and PARAM_END_DATE (both inclusive).  Values come back rounded to
+        // a tenth, or to a whole number for the ids, humidity and wind direction.
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ARCHIVE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        public static final String TABLE_NAME = "archive";
+
+        // The days are stored a location-month to a row, encoded in a blob; see ArchiveBlock.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // The month of the row's days, as year * 12 + month, with January as 0
+        public static final String COLUMN_MONTH = "month";
+        public static final String COLUMN_DATA = "data";
+
+        // What's kept of each day
+        public static final String[] COLUMNS = {
+                WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherEntry.COLUMN_HUMIDITY,
+                WeatherEntry.COLUMN_PRESSURE,
+                WeatherEntry.COLUMN_WIND_SPEED,
+                WeatherEntry.COLUMN_DEGREES
+        };
+
+        public static final String PARAM_START_DATE = "start_date";
+        public static final String PARAM_END_DATE = "end_date";
+
+        public static Uri buildArchiveLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildArchiveLocationWithRange(
+                String locationSetting, long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START_DATE,
+                            Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END_DATE, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
         }
 
         public static long getStartDateFromUri(Uri uri) {
-            String dateString = uri.getQueryParameter(COLUMN_DATE);
+            String dateString = uri.getQueryParameter(PARAM_START_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
+        /**
+         * @return the end of the range, or 0 if it's open-ended.
+         */
+        public static long getEndDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_END_DATE);
             if (null != dateString && dateString.length() > 0)
                 return Long.parseLong(dateString);
             else
                 return 0;
         }
     }
+
+    /* Inner class that defines the table contents of the sync metrics table */
+    public static final class SyncMetricsEntry implements BaseColumns {
+
+        // Appended to by the sync; the rows can be read but never changed or deleted.  Only
+        // the most recent MAX_ROWS syncs are kept.
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_METRICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_METRICS;
+
+        public static final String TABLE_NAME = "sync_metrics";
+
+        public static final int MAX_ROWS = 100;
+
+        // When the sync started, in milliseconds since the epoch
+        public static final String COLUMN_START_TIME = "start_time";
+        // Wall-clock duration of the whole sync, in milliseconds
+        public static final String COLUMN_DURATION = "duration";
+
+        // Time spent in each phase, in milliseconds, summed over the locations synced.  Since
+        // locations are synced concurrently, these can add up to more than the duration.
+        public static final String COLUMN_CONNECT = "connect";
+        public static final String COLUMN_DOWNLOAD = "download";
+        public static final String COLUMN_PARSE = "parse";
+        public static final String COLUMN_COMMIT = "db_commit";
+        public static final String COLUMN_NOTIFY = "notify";
+        public static final String COLUMN_WEAR = "wear";
+
+        // Response body bytes received over the wire, and after decompression
+        public static final String COLUMN_COMPRESSED_BYTES = "compressed_bytes";
+        public static final String COLUMN_UNCOMPRESSED_BYTES = "uncompressed_bytes";
+
+        // Number of locations the sync fetched, and how many of those failed
+        public static final String COLUMN_LOCATIONS = "locations";
+        public static final String COLUMN_ERRORS = "errors";
+    }
+
+    /*
+        Inner class that defines the provider's own diagnostics: for each URI and operation it
+        has served since the process started, how many calls, how long they took and how many
+        rows they returned or changed, in fixed histogram buckets.  Deleting the URI starts the
+        counts again.  Nothing is stored; the counts die with the process.
+     */
+    public static final class DiagnosticsEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_DIAGNOSTICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DIAGNOSTICS;
+
+        // The URI pattern served, such as "weather/*/#", and one of the operations below
+        public static final String COLUMN_PATH = "path";
+        public static final String COLUMN_OPERATION = "operation";
+
+        public static final String OPERATION_QUERY = "query";
+        public static final String OPERATION_INSERT = "insert";
+        public static final String OPERATION_BULK_INSERT = "bulk_insert";
+        public static final String OPERATION_UPDATE = "update";
+        public static final String OPERATION_DELETE = "delete";
+
+        public static final String COLUMN_CALLS = "calls";
+        // Summed over every call, and the slowest call, in microseconds.  A query's time
+        // includes running it to count its rows.
+        public static final String COLUMN_TOTAL_MICROS = "total_micros";
+        public static final String COLUMN_MAX_MICROS = "max_micros";
+        public static final String COLUMN_ROWS = "rows";
+
+        // Upper bounds, inclusive, of the latency buckets in microseconds and of the row count
+        // buckets.  Each histogram has one bucket more, for everything above the last bound.
+        public static final long[] LATENCY_BUCKET_MICROS =
+                {100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000};
+        public static final long[] ROW_BUCKETS = {0, 1, 10, 100, 1000};
+
+        /**
+         * @return the column counting the calls that fell in the given latency bucket.
+         */
+        public static String getLatencyColumn(int bucket) {
+            return "latency_" + bucket;
+        }
+
+        /**
+         * @return the column counting the calls that fell in the given row count bucket.
+         */
+        public static String getRowsColumn(int bucket) {
+            return "rows_" + bucket;
+        }
+    }
 }
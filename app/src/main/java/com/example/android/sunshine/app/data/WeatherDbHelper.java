@@ -16,83 +16,241 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.TimeZone;
+
 /**
  * Manages a local database for weather data.
+ *
+ * Where the platform has it (Honeycomb and up), the database runs in write-ahead logging mode:
+ * the sync's write transaction goes to the log while the forecast and detail loaders keep
+ * reading the last committed state on connections of their own, instead of waiting for the
+ * commit.  Checkpoints, which copy the log back into the database, are left to the sync to
+ * request once it has finished writing; SQLite's own automatic checkpoint is only a backstop
+ * for when that doesn't happen.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 9;
+
+    // The first version with the archive.  Older databases were only a cache of online data.
+    private static final int ARCHIVE_VERSION = 8;
+
+    // The first version with weather keyed by day number rather than by date
+    private static final int DAY_NUMBER_VERSION = 9;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Pages the log may grow to before SQLite checkpoints by itself.  A full sync of a few
+    // locations writes well under this, so SQLite never checkpoints in the middle of one.
+    static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // Opens in WAL mode with a pool of read connections beside the writer's
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    /**
+     * @return true if databases opened by this helper use write-ahead logging.
+     */
+    static boolean isWriteAheadLoggingSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
     }
 
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB || db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            db.enableWriteAheadLogging();
+        }
+        DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES,
+                null);
+    }
+
+    /**
+     * Copies what it can of the write-ahead log back into the database.  Passive, which is
+     * the default mode: it neither waits for nor blocks readers, and leaves whatever they still
+     * need for the next checkpoint.  Does nothing where the database doesn't use a log.
+     */
+    void checkpoint() {
+        if (!isWriteAheadLoggingSupported()) {
+            return;
+        }
+        Cursor cursor = getWritableDatabase().rawQuery("PRAGMA wal_checkpoint", null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // One location's weather on one day to a row.  Kept out here with the archive's because
+    // the upgrade to day numbers builds the table again.
+    private static final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+            // Why AutoIncrement here, and not above?
+            // Unique keys will be auto-generated in either case.  But for weather
+            // forecasting, it's reasonable to assume the user will want information
+            // for a certain date and all dates *following*, so the forecast data
+            // should be sorted accordingly.
+            WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+
+            // the ID of the location entry associated with this weather data
+            WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_DAY + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+
+            WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+
+            WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_CONTENT_HASH + " INTEGER, " +
+
+            // Set up the location column as a foreign key to location table.
+            " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+            // To assure the application have just one weather entry per day
+            // per location, it's created a UNIQUE constraint with REPLACE strategy.
+            // Its index, location first, is also how every forecast query finds its rows:
+            // one location's days, in day order, from a day on.
+            " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DAY + ") ON CONFLICT REPLACE);";
+
+    // Past days of weather, a location-month to a row.  Its unique index is also how ranges of
+    // a location's months are read.
+    private static final String SQL_CREATE_ARCHIVE_TABLE = "CREATE TABLE " + ArchiveEntry.TABLE_NAME + " (" +
+            ArchiveEntry._ID + " INTEGER PRIMARY KEY," +
+            ArchiveEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_MONTH + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_DATA + " BLOB NOT NULL, " +
+            " FOREIGN KEY (" + ArchiveEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+            " UNIQUE (" + ArchiveEntry.COLUMN_LOC_KEY + ", " +
+            ArchiveEntry.COLUMN_MONTH + ") ON CONFLICT REPLACE);";
+
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
         // Create a table to hold locations.  A location consists of the string supplied in the
-        // location setting, the city name, and the latitude and longitude
+        // location setting, the city name, openweathermap's id for the city, and the latitude
+        // and longitude, plus the HTTP validators of the last forecast fetched for it
         final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
                 LocationEntry._ID + " INTEGER PRIMARY KEY," +
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+                LocationEntry.COLUMN_CITY_ID + " INTEGER, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_ETAG + " TEXT, " +
+                LocationEntry.COLUMN_LAST_MODIFIED + " TEXT " +
                 " );";
 
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
-                // Why AutoIncrement here, and not above?
-                // Unique keys will be auto-generated in either case.  But for weather
-                // forecasting, it's reasonable to assume the user will want information
-                // for a certain date and all dates *following*, so the forecast data
-                // should be sorted accordingly.
-                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
-
-                // the ID of the location entry associated with this weather data
-                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
-                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
-
-                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
-
-                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
-
-                // Set up the location column as a foreign key to location table.
-                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
-                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
-
-                // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+        // One row per sync, all integers, so a full window stays a few kilobytes
+        final String SQL_CREATE_SYNC_METRICS_TABLE = "CREATE TABLE " + SyncMetricsEntry.TABLE_NAME + " (" +
+                SyncMetricsEntry._ID + " INTEGER PRIMARY KEY," +
+                SyncMetricsEntry.COLUMN_START_TIME + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_DURATION + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_CONNECT + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_DOWNLOAD + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_PARSE + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_COMMIT + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_NOTIFY + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_WEAR + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_COMPRESSED_BYTES + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_UNCOMPRESSED_BYTES + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_LOCATIONS + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_ERRORS + " INTEGER NOT NULL " +
+                " );";
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_METRICS_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_ARCHIVE_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
+        // Before the archive, this database was only a cache for online data, so its upgrade
+        // policy was to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < ARCHIVE_VERSION) {
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + SyncMetricsEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ArchiveEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        // The archive can't be downloaded again, so from here on each version's changes are
+        // applied in turn to what's there
+        if (oldVersion < DAY_NUMBER_VERSION) {
+            addDayNumbers(sqLiteDatabase);
+        }
+    }
+
+    /*
+        SQLite can't change a table's constraints in place, so the weather table is built again
+        with the day column in its unique key, and the old rows copied across with their day
+        numbers.  The rows keep their ids, in id order, so if two dates turn out to be the same
+        day the later one wins, as it would have on insert.
+     */
+    private static void addDayNumbers(SQLiteDatabase db) {
+        final String oldTable = WeatherEntry.TABLE_NAME + "_old";
+        db.execSQL("ALTER TABLE " + WeatherEntry.TABLE_NAME + " RENAME TO " + oldTable);
+        db.execSQL(SQL_CREATE_WEATHER_TABLE);
+
+        String columns = WeatherEntry._ID + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_HUMIDITY + ", " +
+                WeatherEntry.COLUMN_PRESSURE + ", " +
+                WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                WeatherEntry.COLUMN_DEGREES + ", " +
+                WeatherEntry.COLUMN_CONTENT_HASH;
+        SQLiteStatement copy = db.compileStatement("INSERT INTO " + WeatherEntry.TABLE_NAME +
+                " (" + columns + ", " + WeatherEntry.COLUMN_DAY + ") SELECT " + columns +
+                ", ? FROM " + oldTable + " WHERE " + WeatherEntry._ID + " = ?");
+        TimeZone zone = TimeZone.getDefault();
+        Cursor cursor = db.query(oldTable,
+                new String[]{WeatherEntry._ID, WeatherEntry.COLUMN_DATE},
+                null, null, null, null, WeatherEntry._ID);
+        try {
+            while (cursor.moveToNext()) {
+                copy.bindLong(1, WeatherContract.getDayNumber(cursor.getLong(1), zone));
+                copy.bindLong(2, cursor.getLong(0));
+                copy.executeInsert();
+            }
+        } finally {
+            cursor.close();
+            copy.close();
+        }
+        db.execSQL("DROP TABLE " + oldTable);
     }
 }
@@ -17,25 +17,127 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
 
 public class WeatherProvider extends ContentProvider {
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // While the calling thread is inside applyBatch, what its operations changed.  The cached
+    // query results they made stale are dropped, and their notifications sent, once the batch
+    // commits.
+    private final ThreadLocal<ChangeSet> mPendingChanges = new ThreadLocal<ChangeSet>();
+
+    private final QueryCache mQueryCache = new QueryCache();
+
+    private final ProviderStats mStats = new ProviderStats(sStatsUriCodes, sStatsPaths);
+    // Queries that take at least this long are logged with their plan; 0 logs none
+    private volatile long mSlowQueryNanos;
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_STATS = 103;
+    static final int WEATHER_CONDITIONS = 104;
     static final int LOCATION = 300;
+    static final int LOCATION_UPSERT = 301;
+    static final int SYNC_METRICS = 400;
+    static final int ARCHIVE = 500;
+    static final int ARCHIVE_WITH_LOCATION = 501;
+    static final int DIAGNOSTICS = 600;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    // Every URI code, and the path it matches, as reported by the diagnostics
+    private static final int[] sStatsUriCodes = {
+            WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE, WEATHER_STATS,
+            WEATHER_CONDITIONS, LOCATION, LOCATION_UPSERT, SYNC_METRICS, ARCHIVE,
+            ARCHIVE_WITH_LOCATION, DIAGNOSTICS
+    };
+    private static final String[] sStatsPaths = {
+            WeatherContract.PATH_WEATHER,
+            WeatherContract.PATH_WEATHER + "/*",
+            WeatherContract.PATH_WEATHER + "/*/#",
+            WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_STATS,
+            WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_CONDITIONS,
+            WeatherContract.PATH_LOCATION,
+            WeatherContract.PATH_LOCATION + "/" + WeatherContract.PATH_UPSERT,
+            WeatherContract.PATH_SYNC_METRICS,
+            WeatherContract.PATH_ARCHIVE,
+            WeatherContract.PATH_ARCHIVE + "/*",
+            WeatherContract.PATH_DIAGNOSTICS
+    };
+
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    // The same join, answering aggregates over a location's range of days in one row, or a row
+    // per condition
+    static final SQLiteQueryBuilder sWeatherStatsQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherConditionsQueryBuilder;
+
+    // Every column of the weather and location tables, as bound by bulkInsert
+    private static final String[] sWeatherColumns = {
+            WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_DAY,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH
+    };
+    // Location columns shown alongside the forecast; changing one changes the location's forecast
+    private static final String[] sForecastLocationColumns = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+    // The rest, which only the sync reads
+    private static final String[] sSyncLocationColumns = {
+            WeatherContract.LocationEntry.COLUMN_CITY_ID,
+            WeatherContract.LocationEntry.COLUMN_ETAG,
+            WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED
+    };
+    private static final String[] sLocationColumns = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_CITY_ID,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            WeatherContract.LocationEntry.COLUMN_ETAG,
+            WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED
+    };
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -49,63 +151,206 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        sWeatherStatsQueryBuilder = new SQLiteQueryBuilder();
+        sWeatherStatsQueryBuilder.setTables(sWeatherByLocationSettingQueryBuilder.getTables());
+        Map<String, String> stats = new HashMap<String, String>();
+        putAggregate(stats, WeatherContract.WeatherStatsEntry.COLUMN_DAY_COUNT, "COUNT(*)");
+        putAggregate(stats, WeatherContract.WeatherStatsEntry.COLUMN_LOWEST_TEMP,
+                "MIN(" + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ")");
+        putAggregate(stats, WeatherContract.WeatherStatsEntry.COLUMN_HIGHEST_TEMP,
+                "MAX(" + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ")");
+        putAggregate(stats, WeatherContract.WeatherStatsEntry.COLUMN_MEAN_MIN_TEMP,
+                "AVG(" + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ")");
+        putAggregate(stats, WeatherContract.WeatherStatsEntry.COLUMN_MEAN_MAX_TEMP,
+                "AVG(" + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ")");
+        putAggregate(stats, WeatherContract.WeatherStatsEntry.COLUMN_MIN_HUMIDITY,
+                "MIN(" + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ")");
+        putAggregate(stats, WeatherContract.WeatherStatsEntry.COLUMN_MAX_HUMIDITY,
+                "MAX(" + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ")");
+        putAggregate(stats, WeatherContract.WeatherStatsEntry.COLUMN_MEAN_HUMIDITY,
+                "AVG(" + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ")");
+        putAggregate(stats, WeatherContract.WeatherStatsEntry.COLUMN_MIN_PRESSURE,
+                "MIN(" + WeatherContract.WeatherEntry.COLUMN_PRESSURE + ")");
+        putAggregate(stats, WeatherContract.WeatherStatsEntry.COLUMN_MAX_PRESSURE,
+                "MAX(" + WeatherContract.WeatherEntry.COLUMN_PRESSURE + ")");
+        putAggregate(stats, WeatherContract.WeatherStatsEntry.COLUMN_MEAN_PRESSURE,
+                "AVG(" + WeatherContract.WeatherEntry.COLUMN_PRESSURE + ")");
+        sWeatherStatsQueryBuilder.setProjectionMap(stats);
+
+        sWeatherConditionsQueryBuilder = new SQLiteQueryBuilder();
+        sWeatherConditionsQueryBuilder.setTables(sWeatherByLocationSettingQueryBuilder.getTables());
+        Map<String, String> conditions = new HashMap<String, String>();
+        putAggregate(conditions, WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        putAggregate(conditions, WeatherContract.WeatherStatsEntry.COLUMN_DAY_COUNT, "COUNT(*)");
+        sWeatherConditionsQueryBuilder.setProjectionMap(conditions);
+    }
+
+    private static void putAggregate(Map<String, String> projectionMap, String column,
+                                     String expression) {
+        projectionMap.put(column, expression + " AS " + column);
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
-    //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    //location.location_setting = ? AND day >= ?
+    static final String sLocationSettingWithStartDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+                    WeatherContract.WeatherEntry.COLUMN_DAY + " >= ? ";
+
+    //location.location_setting = ? AND day > ?
+    static final String sLocationSettingAfterDaySelection =
+            WeatherContract.LocationEntry.TABLE_NAME+
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DAY + " > ? ";
+
+    // Paged queries are ordered by the key they page on
+    static final String sPagedSortOrder = WeatherContract.WeatherEntry.COLUMN_DAY + " ASC";
+
+    //location.location_setting = ? AND day = ?
+    static final String sLocationSettingAndDaySelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DAY + " = ? ";
 
-    //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    //location.location_setting = ? AND day BETWEEN ? AND ?
+    static final String sLocationSettingDayRangeSelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+                    WeatherContract.WeatherEntry.COLUMN_DAY + " BETWEEN ? AND ? ";
+
+    // Most frequent conditions first, then by id so ties come back in the same order
+    static final String sConditionsSortOrder =
+            WeatherContract.WeatherStatsEntry.COLUMN_DAY_COUNT + " DESC, " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " ASC";
+
+    //archive.location_id = ? AND month BETWEEN ? AND ?
+    static final String sArchiveRangeSelection =
+            WeatherContract.ArchiveEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.ArchiveEntry.COLUMN_MONTH + " BETWEEN ? AND ? ";
+
+    //archive.location_id = ? AND month = ?
+    static final String sArchiveBlockSelection =
+            WeatherContract.ArchiveEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.ArchiveEntry.COLUMN_MONTH + " = ? ";
+
+    //SELECT _id FROM location WHERE location_setting = ?
+    private static final String sLocationIdBySettingQuery =
+            "SELECT " + WeatherContract.LocationEntry._ID +
+                    " FROM " + WeatherContract.LocationEntry.TABLE_NAME +
+                    " WHERE " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
 
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        int startDay = WeatherContract.WeatherEntry.getStartDayFromUri(uri);
+        int afterDay = WeatherContract.WeatherEntry.getAfterDayFromUri(uri);
+        int limit = WeatherContract.WeatherEntry.getLimitFromUri(uri);
 
         String[] selectionArgs;
         String selection;
+        String limitClause = null;
 
-        if (startDate == 0) {
+        if (afterDay != 0) {
+            // A later page already starts after the first page's start day
+            selection = sLocationSettingAfterDaySelection;
+            selectionArgs = new String[]{locationSetting, Integer.toString(afterDay)};
+        } else if (startDay == 0) {
             selection = sLocationSettingSelection;
             selectionArgs = new String[]{locationSetting};
         } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
+            selectionArgs = new String[]{locationSetting, Integer.toString(startDay)};
+            selection = sLocationSettingWithStartDaySelection;
+        }
+        if (afterDay != 0 || limit > 0) {
+            // Pages only follow on from each other in day order.  With the (location, day)
+            // index that order is free, and the page is read as a range of it.
+            sortOrder = sPagedSortOrder;
+            if (limit > 0) {
+                limitClause = Integer.toString(limit);
+            }
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return runQuery(sWeatherByLocationSettingQueryBuilder,
                 projection,
                 selection,
                 selectionArgs,
                 null,
-                null,
-                sortOrder
+                sortOrder,
+                limitClause
         );
     }
 
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+        int day = WeatherContract.WeatherEntry.getDayFromUri(uri);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return runQuery(sWeatherByLocationSettingQueryBuilder,
                 projection,
                 sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
+                new String[]{locationSetting, Integer.toString(day)},
                 null,
+                sortOrder,
+                null
+        );
+    }
+
+    /**
+     * Summarizes a location's range of days in the database, reading only that range of the
+     * (location, day) index, with one row per condition if {@code match} is
+     * WEATHER_CONDITIONS and a single row otherwise.
+     */
+    private Cursor getWeatherStats(Uri uri, int match, String[] projection) {
+        String[] selectionArgs = new String[]{
+                WeatherContract.WeatherStatsEntry.getLocationSettingFromUri(uri),
+                Integer.toString(WeatherContract.WeatherStatsEntry.getFromDayFromUri(uri)),
+                Integer.toString(WeatherContract.WeatherStatsEntry.getToDayFromUri(uri))};
+
+        if (match == WEATHER_CONDITIONS) {
+            return runQuery(sWeatherConditionsQueryBuilder,
+                    projection,
+                    sLocationSettingDayRangeSelection,
+                    selectionArgs,
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                    sConditionsSortOrder,
+                    null
+            );
+        }
+        return runQuery(sWeatherStatsQueryBuilder,
+                projection,
+                sLocationSettingDayRangeSelection,
+                selectionArgs,
                 null,
-                sortOrder
+                null,
+                null
+        );
+    }
+
+    private Cursor getArchiveByLocationSetting(Uri uri, String[] projection) {
+        String locationSetting = WeatherContract.ArchiveEntry.getLocationSettingFromUri(uri);
+        long startDate = WeatherContract.ArchiveEntry.getStartDateFromUri(uri);
+        long endDate = WeatherContract.ArchiveEntry.getEndDateFromUri(uri);
+        int startKey = startDate == 0 ? 0 : ArchiveCursor.getDayKey(
+                ArchiveBlock.getMonth(startDate), ArchiveBlock.getDay(startDate));
+        int endKey = endDate == 0 ? Integer.MAX_VALUE : ArchiveCursor.getDayKey(
+                ArchiveBlock.getMonth(endDate), ArchiveBlock.getDay(endDate));
+
+        // An unknown location has no months to find
+        Cursor blocks = runQuery(
+                WeatherContract.ArchiveEntry.TABLE_NAME,
+                new String[]{WeatherContract.ArchiveEntry.COLUMN_MONTH,
+                        WeatherContract.ArchiveEntry.COLUMN_DATA},
+                sArchiveRangeSelection,
+                new String[]{Long.toString(findLocationId(locationSetting)),
+                        Integer.toString(startKey / 32), Integer.toString(endKey / 32)},
+                WeatherContract.ArchiveEntry.COLUMN_MONTH + " ASC"
         );
+        return new ArchiveCursor(blocks, projection, startKey, endKey);
     }
 
     /*
@@ -128,8 +373,19 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_STATS,
+                WEATHER_STATS);
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_CONDITIONS,
+                WEATHER_CONDITIONS);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" + WeatherContract.PATH_UPSERT,
+                LOCATION_UPSERT);
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_METRICS, SYNC_METRICS);
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE, ARCHIVE);
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE + "/*", ARCHIVE_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_DIAGNOSTICS, DIAGNOSTICS);
         return matcher;
     }
 
@@ -162,8 +418,21 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_STATS:
+                return WeatherContract.WeatherStatsEntry.CONTENT_ITEM_TYPE;
+            case WEATHER_CONDITIONS:
+                return WeatherContract.WeatherStatsEntry.CONDITIONS_CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case LOCATION_UPSERT:
+                return WeatherContract.LocationEntry.CONTENT_ITEM_TYPE;
+            case SYNC_METRICS:
+                return WeatherContract.SyncMetricsEntry.CONTENT_TYPE;
+            case ARCHIVE:
+            case ARCHIVE_WITH_LOCATION:
+                return WeatherContract.ArchiveEntry.CONTENT_TYPE;
+            case DIAGNOSTICS:
+                return WeatherContract.DiagnosticsEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -172,47 +441,82 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        final int match = sUriMatcher.match(uri);
+        long start = System.nanoTime();
+        Cursor cursor = query(uri, match, projection, selection, selectionArgs, sortOrder);
+        // Counting the rows runs the query, so its time is counted and not just its preparation
+        mStats.record(match, ProviderStats.OP_QUERY, System.nanoTime() - start, cursor.getCount());
+        return cursor;
+    }
+
+    private Cursor query(Uri uri, int match, String[] projection, String selection,
+                         String[] selectionArgs, String sortOrder) {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = getCachedWeatherByLocationSetting(uri, match, projection, sortOrder);
                 break;
             }
+            // "weather/*/stats"
+            case WEATHER_STATS:
+            // "weather/*/conditions"
+            case WEATHER_CONDITIONS: {
+                retCursor = getWeatherStats(uri, match, projection);
+                // A write notifies the location, or one of its days, never the summary
+                retCursor.setNotificationUri(getContext().getContentResolver(),
+                        WeatherContract.WeatherEntry.buildWeatherLocation(
+                                WeatherContract.WeatherStatsEntry.getLocationSettingFromUri(uri)));
+                return retCursor;
+            }
             // "weather"
             case WEATHER: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
+                retCursor = runQuery(
                         WeatherContract.WeatherEntry.TABLE_NAME,
                         projection,
                         selection,
                         selectionArgs,
-                        null,
-                        null,
                         sortOrder
                 );
                 break;
             }
             // "location"
             case LOCATION: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
+                retCursor = runQuery(
                         WeatherContract.LocationEntry.TABLE_NAME,
                         projection,
                         selection,
                         selectionArgs,
-                        null,
-                        null,
                         sortOrder
                 );
                 break;
             }
+            // "sync_metrics"
+            case SYNC_METRICS: {
+                retCursor = runQuery(
+                        WeatherContract.SyncMetricsEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        sortOrder
+                );
+                break;
+            }
+            // "archive/*"
+            case ARCHIVE_WITH_LOCATION: {
+                // Always in date order, decoded as it's read
+                retCursor = getArchiveByLocationSetting(uri, projection);
+                break;
+            }
+            // "diagnostics"
+            case DIAGNOSTICS: {
+                retCursor = mStats.toCursor();
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -221,23 +525,141 @@ public class WeatherProvider extends ContentProvider {
         return retCursor;
     }
 
+    /**
+     * Answers a per-location weather query from the {@link QueryCache} if it can, and caches
+     * what the database answers if it can't.
+     */
+    private Cursor getCachedWeatherByLocationSetting(Uri uri, int match, String[] projection,
+                                                     String sortOrder) {
+        if (!QueryCache.isSupported()) {
+            return match == WEATHER_WITH_LOCATION
+                    ? getWeatherByLocationSetting(uri, projection, sortOrder)
+                    : getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+        }
+        String key = QueryCache.buildKey(uri, projection, sortOrder);
+        Cursor cached = mQueryCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        long generation = mQueryCache.getGeneration();
+        Cursor cursor = match == WEATHER_WITH_LOCATION
+                ? getWeatherByLocationSetting(uri, projection, sortOrder)
+                : getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+        // A location that isn't stored has nothing to invalidate its results by
+        long locationId = findLocationId(
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+        if (locationId != -1) {
+            mQueryCache.put(key, locationId, cursor, generation);
+        }
+        return cursor;
+    }
+
+    /**
+     * Runs a query the way {@link SQLiteQueryBuilder#query} would, logging it if it's slow.
+     */
+    @SuppressWarnings("deprecation")
+    private Cursor runQuery(SQLiteQueryBuilder builder, String[] projection, String selection,
+                            String[] selectionArgs, String groupBy, String sortOrder,
+                            String limit) {
+        // The non-deprecated overload, without the selection args it never used, needs API 11
+        return rawQuery(builder.buildQuery(projection, selection, null, groupBy, null,
+                sortOrder, limit), selectionArgs);
+    }
+
+    /**
+     * Runs a query of a single table the way {@link SQLiteDatabase#query} would, logging it if
+     * it's slow.
+     */
+    private Cursor runQuery(String table, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder) {
+        return rawQuery(SQLiteQueryBuilder.buildQueryString(false, table, projection, selection,
+                null, null, sortOrder, null), selectionArgs);
+    }
+
+    /**
+     * Runs the query, and if slow query logging is on, counts its rows to run it right away.
+     * If that takes at least the slow query threshold, the query is logged with its plan.
+     */
+    private Cursor rawQuery(String sql, String[] selectionArgs) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long slowQueryNanos = mSlowQueryNanos;
+        if (slowQueryNanos == 0) {
+            return db.rawQuery(sql, selectionArgs);
+        }
+        long start = System.nanoTime();
+        Cursor cursor = db.rawQuery(sql, selectionArgs);
+        cursor.getCount();
+        long nanos = System.nanoTime() - start;
+        if (nanos >= slowQueryNanos) {
+            logSlowQuery(db, sql, selectionArgs, nanos);
+        }
+        return cursor;
+    }
+
+    private static void logSlowQuery(SQLiteDatabase db, String sql, String[] selectionArgs,
+                                     long nanos) {
+        StringBuilder message = new StringBuilder("Slow query (")
+                .append(nanos / 1000000).append("ms): ").append(sql);
+        if (selectionArgs != null) {
+            message.append(" with ").append(Arrays.toString(selectionArgs));
+        }
+        Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            int detailIndex = plan.getColumnIndex("detail");
+            while (plan.moveToNext()) {
+                message.append("\n  ").append(plan.getString(detailIndex));
+            }
+        } finally {
+            plan.close();
+        }
+        Log.w(LOG_TAG, message.toString());
+    }
+
+    /**
+     * @return the row id of the location, or -1 if it isn't stored.
+     */
+    private long findLocationId(String locationSetting) {
+        long locationId = LocationIdCache.getInstance().get(locationSetting);
+        if (locationId != -1) {
+            return locationId;
+        }
+        try {
+            return DatabaseUtils.longForQuery(mOpenHelper.getReadableDatabase(),
+                    sLocationIdBySettingQuery, new String[]{locationSetting});
+        } catch (SQLiteDoneException e) {
+            return -1;
+        }
+    }
+
     /*
         Student: Add the ability to insert Locations to the implementation of this function.
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        long start = System.nanoTime();
+        Uri returnUri = insert(uri, match, values);
+        mStats.record(match, ProviderStats.OP_INSERT, System.nanoTime() - start,
+                returnUri != null ? 1 : 0);
+        return returnUri;
+    }
+
+    private Uri insert(Uri uri, int match, ContentValues values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ChangeSet changes = new ChangeSet();
         Uri returnUri;
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
+                putDay(values, TimeZone.getDefault());
                 long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                changes.addWeather(values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                        values.getAsInteger(WeatherContract.WeatherEntry.COLUMN_DAY));
                 break;
             }
             case LOCATION: {
@@ -246,100 +668,541 @@ public class WeatherProvider extends ContentProvider {
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                changes.addLocation(_id);
+                break;
+            }
+            case LOCATION_UPSERT:
+                // Notifies for itself, and only if the location was new
+                return upsertLocation(db, values);
+            case SYNC_METRICS: {
+                returnUri = appendSyncMetrics(db, values);
+                changes.addUri(WeatherContract.SyncMetricsEntry.CONTENT_URI);
+                break;
+            }
+            case ARCHIVE: {
+                long _id = archiveDays(db, new ContentValues[]{values});
+                returnUri = ContentUris.withAppendedId(WeatherContract.ArchiveEntry.CONTENT_URI, _id);
+                changes.addUri(WeatherContract.ArchiveEntry.CONTENT_URI);
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        publishChanges(changes);
         return returnUri;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        long start = System.nanoTime();
+        int rowsDeleted = delete(uri, match, selection, selectionArgs);
+        mStats.record(match, ProviderStats.OP_DELETE, System.nanoTime() - start, rowsDeleted);
+        return rowsDeleted;
+    }
+
+    private int delete(Uri uri, int match, String selection, String[] selectionArgs) {
+        if (match == DIAGNOSTICS) {
+            // Starts the counts again; there are no rows to delete
+            mStats.reset();
+            getContext().getContentResolver().notifyChange(uri, null);
+            return 0;
+        }
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ChangeSet changes = new ChangeSet();
         int rowsDeleted;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
-        switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        // What the delete changes is found in the same transaction as the rows are deleted
+        db.beginTransaction();
+        try {
+            switch (match) {
+                case WEATHER:
+                    changes.addWeather(db, selection, selectionArgs, null);
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                case LOCATION:
+                    changes.addLocations(db, selection, selectionArgs, true);
+                    rowsDeleted = db.delete(
+                            WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                    if (rowsDeleted != 0) {
+                        LocationIdCache.getInstance().invalidate();
+                    }
+                    break;
+                case ARCHIVE:
+                    rowsDeleted = db.delete(
+                            WeatherContract.ArchiveEntry.TABLE_NAME, selection, selectionArgs);
+                    changes.addUri(WeatherContract.ArchiveEntry.CONTENT_URI);
+                    break;
+                case SYNC_METRICS:
+                    throw new UnsupportedOperationException("Sync metrics are append-only: " + uri);
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            publishChanges(changes);
         }
         return rowsDeleted;
     }
 
-    private void normalizeDate(ContentValues values) {
-        // normalize the date value
-        if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
-            long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
+    /**
+     * Inserts the location unless its setting is already stored, then looks up the row that
+     * holds it, in one transaction.  The id found is cached for the sync once it's certain to
+     * be committed: here, if the transaction is the outermost one, or by applyBatch, if it's
+     * one of the batch's operations.
+     *
+     * @return the URI of the location's row, whether it was inserted or already there.
+     */
+    private Uri upsertLocation(SQLiteDatabase db, ContentValues values) {
+        String locationSetting =
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        if (locationSetting == null) {
+            throw new IllegalArgumentException("Location upsert needs a location setting");
+        }
+        long _id;
+        long insertedId;
+        // Inside another transaction, which may yet roll back the row found or created
+        boolean nested = db.inTransaction();
+        db.beginTransaction();
+        try {
+            insertedId = db.insertWithOnConflict(WeatherContract.LocationEntry.TABLE_NAME, null,
+                    values, SQLiteDatabase.CONFLICT_IGNORE);
+            if (insertedId > 0) {
+                _id = insertedId;
+            } else {
+                _id = DatabaseUtils.longForQuery(db, sLocationIdBySettingQuery,
+                        new String[]{locationSetting});
+            }
+            if (!nested) {
+                // Cached before the commit, so a delete can't slip in between and leave it stale
+                LocationIdCache.getInstance().put(locationSetting, _id);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        ChangeSet changes = new ChangeSet();
+        if (nested) {
+            changes.addLocationId(locationSetting, _id);
+        }
+        if (insertedId > 0) {
+            changes.addLocation(_id);
+        }
+        if (nested || insertedId > 0) {
+            publishChanges(changes);
+        }
+        return WeatherContract.LocationEntry.buildLocationUri(_id);
+    }
+
+    /**
+     * Appends a sync's metrics and drops whatever has fallen out of the window, in one
+     * transaction.
+     */
+    private Uri appendSyncMetrics(SQLiteDatabase db, ContentValues values) {
+        Uri returnUri;
+        db.beginTransaction();
+        try {
+            long _id = db.insert(WeatherContract.SyncMetricsEntry.TABLE_NAME, null, values);
+            if ( _id > 0 )
+                returnUri = ContentUris.withAppendedId(
+                        WeatherContract.SyncMetricsEntry.CONTENT_URI, _id);
+            else
+                throw new android.database.SQLException("Failed to insert sync metrics");
+            // Row ids only grow while the newest row is kept, so the window is an id range
+            db.delete(WeatherContract.SyncMetricsEntry.TABLE_NAME,
+                    WeatherContract.SyncMetricsEntry._ID + " <= ?",
+                    new String[]{Long.toString(_id - WeatherContract.SyncMetricsEntry.MAX_ROWS)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return returnUri;
+    }
+
+    /*
+        Fills in whichever of a row's date and day number it was written without.  A row
+        written with both, as the sync writes them, is taken as it is, so a bulk insert of
+        the sync's rows works nothing out.
+     */
+    private static void putDay(ContentValues values, TimeZone zone) {
+        Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        Integer day = values.getAsInteger(WeatherContract.WeatherEntry.COLUMN_DAY);
+        if (date != null && day == null) {
+            day = WeatherContract.getDayNumber(date, zone);
+            values.put(WeatherContract.WeatherEntry.COLUMN_DAY, day);
+            values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    WeatherContract.getStartOfDay(day, zone));
+        } else if (date == null && day != null) {
+            values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    WeatherContract.getStartOfDay(day, zone));
         }
     }
 
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        long start = System.nanoTime();
+        int rowsUpdated = update(uri, match, values, selection, selectionArgs);
+        mStats.record(match, ProviderStats.OP_UPDATE, System.nanoTime() - start, rowsUpdated);
+        return rowsUpdated;
+    }
+
+    private int update(
+            Uri uri, int match, ContentValues values, String selection, String[] selectionArgs) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ChangeSet changes = new ChangeSet();
         int rowsUpdated;
 
-        switch (match) {
-            case WEATHER:
-                normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
-            case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        // What the update changes is found in the same transaction as the rows are updated
+        db.beginTransaction();
+        try {
+            switch (match) {
+                case WEATHER:
+                    putDay(values, TimeZone.getDefault());
+                    // Rows moved to another location or day change its results too
+                    changes.addWeather(db, selection, selectionArgs, values);
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    break;
+                case LOCATION:
+                    // An update of the sync's bookkeeping columns leaves the forecast alone
+                    boolean forecastChanged = hasAnyColumn(values, sForecastLocationColumns);
+                    changes.addLocations(db, selection, selectionArgs, forecastChanged);
+                    rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    String newSetting = values.getAsString(
+                            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                    if (newSetting != null) {
+                        changes.addForecast(newSetting);
+                    }
+                    // Only a changed setting or id can make a cached id wrong
+                    if (rowsUpdated != 0
+                            && (values.containsKey(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)
+                            || values.containsKey(WeatherContract.LocationEntry._ID))) {
+                        LocationIdCache.getInstance().invalidate();
+                    }
+                    break;
+                case SYNC_METRICS:
+                    throw new UnsupportedOperationException("Sync metrics are append-only: " + uri);
+                case ARCHIVE:
+                    throw new UnsupportedOperationException("Archived days are only added to: " + uri);
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            publishChanges(changes);
         }
         return rowsUpdated;
     }
 
+    /**
+     * Inserts the rows in one transaction through a single precompiled statement, rather than
+     * building and compiling the SQL again for every row as {@link SQLiteDatabase#insert} does.
+     * As with insert, rows the database refuses are skipped and not counted.
+     */
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        long start = System.nanoTime();
+        int returnCount = bulkInsert(uri, match, values);
+        mStats.record(match, ProviderStats.OP_BULK_INSERT, System.nanoTime() - start,
+                returnCount);
+        return returnCount;
+    }
+
+    private int bulkInsert(Uri uri, int match, ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ChangeSet changes = new ChangeSet();
+        int returnCount;
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
+                // The default zone is a copy, made once here rather than for every row
+                TimeZone zone = TimeZone.getDefault();
+                for (ContentValues value : values) {
+                    putDay(value, zone);
+                }
+                long[] rowIds = new long[values.length];
+                returnCount = bulkInsert(db, WeatherContract.WeatherEntry.TABLE_NAME,
+                        sWeatherColumns, values, rowIds);
+                // Only the rows stored changed anything; the ones refused may not even have a
+                // location or day
+                for (int i = 0; i < values.length; i++) {
+                    if (rowIds[i] != -1) {
+                        changes.addWeather(
+                                values[i].getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                                values[i].getAsInteger(WeatherContract.WeatherEntry.COLUMN_DAY));
                     }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+                break;
+            case LOCATION:
+                returnCount = bulkInsert(db, WeatherContract.LocationEntry.TABLE_NAME,
+                        sLocationColumns, values, null);
+                // The new rows' ids aren't kept, so everyone watching locations hears of it
+                changes.addUri(WeatherContract.LocationEntry.CONTENT_URI);
+                break;
+            case ARCHIVE:
+                archiveDays(db, values);
+                returnCount = values.length;
+                changes.addUri(WeatherContract.ArchiveEntry.CONTENT_URI);
+                break;
             default:
                 return super.bulkInsert(uri, values);
         }
+        if (returnCount != 0) {
+            publishChanges(changes);
+        }
+        return returnCount;
+    }
+
+    /**
+     * @param columns every column of the table.  A row with a value for any other column
+     *                isn't bound to the statement but handed to insert, which reports it.
+     * @param rowIds if not null, filled with each row's id, or -1 where it was refused
+     * @return the number of rows inserted.
+     */
+    private static int bulkInsert(SQLiteDatabase db, String table, String[] columns,
+                                  ContentValues[] values, long[] rowIds) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? "," : "").append(columns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        sql.append(')');
+
+        int returnCount = 0;
+        db.beginTransaction();
+        SQLiteStatement insert = db.compileStatement(sql.toString());
+        try {
+            for (int row = 0; row < values.length; row++) {
+                ContentValues value = values[row];
+                long _id;
+                if (hasOnlyColumns(value, columns)) {
+                    insert.clearBindings();
+                    // Bind indexes are 1-based; a column without a value is bound to null
+                    for (int i = 0; i < columns.length; i++) {
+                        DatabaseUtils.bindObjectToProgram(insert, i + 1, value.get(columns[i]));
+                    }
+                    try {
+                        _id = insert.executeInsert();
+                    } catch (android.database.SQLException e) {
+                        // Refused by a constraint, as insert would report with -1
+                        _id = -1;
+                    }
+                } else {
+                    _id = db.insert(table, null, value);
+                }
+                if (_id != -1) {
+                    returnCount++;
+                }
+                if (rowIds != null) {
+                    rowIds[row] = _id;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            db.endTransaction();
+        }
+        return returnCount;
+    }
+
+    /**
+     * Merges the days into their location-month blocks, in one transaction: each block is
+     * read, decoded, added to and written back once, however many of its days there are.
+     *
+     * @param values weather rows, with at least the location and date
+     * @return the row id of the last block written.
+     */
+    private static long archiveDays(SQLiteDatabase db, ContentValues[] values) {
+        // Blocks by location id, then month
+        Map<Long, Map<Integer, ArchiveBlock>> blocks = new HashMap<Long, Map<Integer, ArchiveBlock>>();
+        long _id = -1;
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                if (locationId == null || date == null) {
+                    throw new IllegalArgumentException("Archived days need a location and date");
+                }
+                int month = ArchiveBlock.getMonth(date);
+                Map<Integer, ArchiveBlock> months = blocks.get(locationId);
+                if (months == null) {
+                    months = new HashMap<Integer, ArchiveBlock>();
+                    blocks.put(locationId, months);
+                }
+                ArchiveBlock block = months.get(month);
+                if (block == null) {
+                    block = readArchiveBlock(db, locationId, month);
+                    months.put(month, block);
+                }
+                block.put(value);
+            }
+            for (Map.Entry<Long, Map<Integer, ArchiveBlock>> location : blocks.entrySet()) {
+                for (Map.Entry<Integer, ArchiveBlock> month : location.getValue().entrySet()) {
+                    ContentValues row = new ContentValues();
+                    row.put(WeatherContract.ArchiveEntry.COLUMN_LOC_KEY, location.getKey());
+                    row.put(WeatherContract.ArchiveEntry.COLUMN_MONTH, month.getKey());
+                    row.put(WeatherContract.ArchiveEntry.COLUMN_DATA, month.getValue().encode());
+                    // Replaces the block read
+                    _id = db.insert(WeatherContract.ArchiveEntry.TABLE_NAME, null, row);
+                    if (_id == -1) {
+                        throw new android.database.SQLException("Failed to archive month "
+                                + month.getKey() + " of location " + location.getKey());
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return _id;
+    }
+
+    /**
+     * @return the stored block for the location and month, or an empty one.
+     */
+    private static ArchiveBlock readArchiveBlock(SQLiteDatabase db, long locationId, int month) {
+        Cursor cursor = db.query(WeatherContract.ArchiveEntry.TABLE_NAME,
+                new String[]{WeatherContract.ArchiveEntry.COLUMN_DATA},
+                sArchiveBlockSelection,
+                new String[]{Long.toString(locationId), Integer.toString(month)},
+                null, null, null);
+        try {
+            return cursor.moveToFirst()
+                    ? ArchiveBlock.decode(cursor.getBlob(0)) : new ArchiveBlock();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static boolean hasAnyColumn(ContentValues value, String[] columns) {
+        for (String column : columns) {
+            if (value.containsKey(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasOnlyColumns(ContentValues value, String[] columns) {
+        int known = 0;
+        for (String column : columns) {
+            if (value.containsKey(column)) {
+                known++;
+            }
+        }
+        return known == value.size();
+    }
+
+    /**
+     * Applies the operations in a single transaction: either all of them take effect or, if
+     * one fails, none do, and readers never see the batch half applied.  The change
+     * notifications the operations would have sent are merged, and sent once per URI after
+     * the commit.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ChangeSet changes = new ChangeSet();
+        ContentProviderResult[] results;
+        mPendingChanges.set(changes);
+        db.beginTransaction();
+        try {
+            try {
+                results = super.applyBatch(operations);
+                db.setTransactionSuccessful();
+                // The batch is bound to commit now, and holds the write lock until it has, so
+                // no delete can slip in between and leave the ids its upserts found stale
+                for (Map.Entry<String, Long> id : changes.getLocationIds().entrySet()) {
+                    LocationIdCache.getInstance().put(id.getKey(), id.getValue());
+                }
+            } finally {
+                db.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            // Should the commit itself fail, the ids cached for it name rows never written
+            LocationIdCache.getInstance().invalidate();
+            throw e;
+        } finally {
+            mPendingChanges.remove();
+            // Only now can readers see what the batch wrote.  A rolled back batch changed
+            // nothing, and dropping its locations' results anyway only costs a requery.
+            invalidateLocations(changes);
+        }
+        notifyChanges(changes);
+        return results;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_CHECKPOINT.equals(method)) {
+            mOpenHelper.checkpoint();
+            return null;
+        }
+        if (WeatherContract.METHOD_SLOW_QUERY_MILLIS.equals(method)) {
+            if (arg != null) {
+                mSlowQueryNanos = Long.parseLong(arg) * 1000000;
+            }
+            Bundle result = new Bundle();
+            result.putLong(WeatherContract.EXTRA_SLOW_QUERY_MILLIS, mSlowQueryNanos / 1000000);
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Drops the cached query results the changes made stale and notifies the URIs they touched,
+     * or, inside applyBatch, adds them to the batch's to be published once it's over.  Call
+     * once the write has committed.
+     */
+    private void publishChanges(ChangeSet changes) {
+        ChangeSet pending = mPendingChanges.get();
+        if (pending != null) {
+            pending.addAll(changes);
+        } else {
+            invalidateLocations(changes);
+            notifyChanges(changes);
+        }
+    }
+
+    private void invalidateLocations(ChangeSet changes) {
+        Set<Long> locationIds = changes.getChangedLocations();
+        if (!locationIds.isEmpty()) {
+            mQueryCache.invalidate(locationIds);
+        }
+        // The sync's bookkeeping alone only stales the results that read it
+        Set<Long> bookkeepingIds = new HashSet<Long>(changes.getLocationRows());
+        bookkeepingIds.removeAll(locationIds);
+        if (!bookkeepingIds.isEmpty()) {
+            mQueryCache.invalidate(bookkeepingIds, sSyncLocationColumns);
+        }
+    }
+
+    private void notifyChanges(ChangeSet changes) {
+        for (Uri uri : changes.getNotificationUris(mOpenHelper.getReadableDatabase())) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    @VisibleForTesting
+    QueryCache getQueryCache() {
+        return mQueryCache;
     }
 
     // You do not need to call this method. This is a method specifically to assist the testing
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.target.Target;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Downloads the art for every weather condition in the stored forecasts into Glide's disk
+ * cache, so the list, the detail view and the notification don't each fetch it over whatever
+ * network they happen to be on.  The art is cached as the original image, which the loads
+ * that use it find because they cache {@link com.bumptech.glide.load.engine.DiskCacheStrategy#ALL}.
+ */
+public class ArtPrefetcher {
+    private static final String LOG_TAG = ArtPrefetcher.class.getSimpleName();
+
+    /**
+     * Blocks until all the art is downloaded, so it must not be called from the UI thread.
+     * Stops early if the thread is interrupted.
+     */
+    public static void prefetch(Context context) {
+        if (Utility.usingLocalGraphics(context)) {
+            return;
+        }
+
+        Set<String> artUrls = new LinkedHashSet<String>();
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_WEATHER_ID},
+                null, null, null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                String artUrl = Utility.getArtUrlForWeatherCondition(context, cursor.getInt(0));
+                if (artUrl != null) {
+                    artUrls.add(artUrl);
+                }
+            }
+            cursor.close();
+        }
+
+        int fetched = 0;
+        for (String artUrl : artUrls) {
+            try {
+                Glide.with(context)
+                        .load(artUrl)
+                        .downloadOnly(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL)
+                        .get();
+                fetched++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                Log.w(LOG_TAG, "Error prefetching " + artUrl, e);
+            }
+        }
+        Log.d(LOG_TAG, "Prefetched " + fetched + " of " + artUrls.size() + " pieces of art");
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read through it, and the time spent waiting for them.
+ */
+class CountingInputStream extends FilterInputStream {
+    private long mCount;
+    private long mReadNanos;
+
+    CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the time spent inside the underlying stream's read methods.
+     */
+    long getReadNanos() {
+        return mReadNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        int b = super.read();
+        mReadNanos += System.nanoTime() - start;
+        if (b != -1) mCount++;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        long start = System.nanoTime();
+        int read = super.read(buffer, offset, count);
+        mReadNanos += System.nanoTime() - start;
+        if (read > 0) mCount += read;
+        return read;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        long skipped = super.skip(byteCount);
+        mCount += skipped;
+        return skipped;
+    }
+
+    // Counting doesn't survive a reset, so don't offer one
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
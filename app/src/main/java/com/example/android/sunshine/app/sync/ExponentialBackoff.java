@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter.  The n-th delay is drawn from the upper half of
+ * [0, min(max, base * 2^(n-1))], so delays still grow with every attempt but clients that
+ * failed together don't all come back at the same moment.
+ */
+class ExponentialBackoff {
+    private final long mBaseMillis;
+    private final long mMaxMillis;
+    private final Random mRandom;
+
+    ExponentialBackoff(long baseMillis, long maxMillis) {
+        this(baseMillis, maxMillis, new Random());
+    }
+
+    ExponentialBackoff(long baseMillis, long maxMillis, Random random) {
+        mBaseMillis = baseMillis;
+        mMaxMillis = maxMillis;
+        mRandom = random;
+    }
+
+    /**
+     * @param attempt 1 for the delay after the first failure, 2 after the second, and so on
+     * @return how long to wait before trying again, in milliseconds
+     */
+    long getDelayMillis(int attempt) {
+        long ceiling = mBaseMillis;
+        for (int i = 1; i < attempt && ceiling < mMaxMillis; i++) {
+            ceiling *= 2;
+        }
+        ceiling = Math.min(ceiling, mMaxMillis);
+        long half = ceiling / 2;
+        return half + (long) (mRandom.nextDouble() * (ceiling - half));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Works out which of a location's forecast days actually need writing.  Every row the sync
+ * stores carries a hash of its weather columns; an incoming day whose hash matches the one
+ * stored for the same day is left alone, and stored days the forecast no longer covers are
+ * removed.  A sync that brings nothing new therefore writes nothing and notifies no one.
+ */
+public class ForecastDiff {
+
+    // The columns that make up a day's content, in the order they are hashed.  The date, day
+    // and location key identify the row rather than describe it, so they are left out.
+    private static final String[] CONTENT_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // 64-bit FNV-1a parameters
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // New or changed days, to be inserted over whatever is stored for their day
+    public final List<ContentValues> upserts = new ArrayList<ContentValues>();
+    // Day numbers of stored days the incoming forecast doesn't cover
+    public final List<Integer> removedDays = new ArrayList<Integer>();
+    // Incoming days identical to the stored ones
+    public int unchanged;
+
+    public boolean isEmpty() {
+        return upserts.isEmpty() && removedDays.isEmpty();
+    }
+
+    /**
+     * @return a hash of the day's weather columns, stable across processes and releases.
+     */
+    public static long contentHash(ContentValues day) {
+        long hash = FNV_OFFSET_BASIS;
+        for (String column : CONTENT_COLUMNS) {
+            byte[] bytes = (column + '=' + day.get(column) + ';').getBytes(UTF_8);
+            for (byte b : bytes) {
+                hash ^= b & 0xff;
+                hash *= FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Compares the incoming days against what is stored for the location.  Incoming rows must
+     * already carry their day number and their content hash.
+     *
+     * @param storedHashes the stored rows' content hashes by day number.  A null hash never
+     *                     matches.
+     * @param incoming the days to store
+     */
+    public static ForecastDiff compute(Map<Integer, Long> storedHashes,
+                                       List<ContentValues> incoming) {
+        ForecastDiff diff = new ForecastDiff();
+        Set<Integer> incomingDays = new HashSet<Integer>();
+        for (ContentValues day : incoming) {
+            Integer dayNumber = day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_DAY);
+            Long hash = day.getAsLong(WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH);
+            incomingDays.add(dayNumber);
+            Long storedHash = storedHashes.get(dayNumber);
+            if (storedHash != null && storedHash.equals(hash)) {
+                diff.unchanged++;
+            } else {
+                diff.upserts.add(day);
+            }
+        }
+        for (Integer dayNumber : storedHashes.keySet()) {
+            if (!incomingDays.contains(dayNumber)) {
+                diff.removedDays.add(dayNumber);
+            }
+        }
+        return diff;
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns an OpenWeatherMap daily forecast response into one {@link ContentValues} row per day.
+ *
+ * On Honeycomb and higher the response is pulled straight off the connection's input stream
+ * with a {@link JsonReader}, so neither the raw JSON String nor an org.json object tree is ever
+ * held in memory.  Older devices fall back to the org.json parser.
+ *
+ * The rows only carry the weather columns; the caller stamps the date and location key once
+ * it knows them.  Malformed content is reported as a {@link JSONException} and a broken stream
+ * as an {@link IOException}, the same split the org.json path has always had.
+ */
+public class ForecastJsonParser {
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_ID = "id";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits used to make sure every field the day row needs was present
+    private static final int DAY_PRESSURE = 1;
+    private static final int DAY_HUMIDITY = 1 << 1;
+    private static final int DAY_WINDSPEED = 1 << 2;
+    private static final int DAY_WIND_DIRECTION = 1 << 3;
+    private static final int DAY_MAX = 1 << 4;
+    private static final int DAY_MIN = 1 << 5;
+    private static final int DAY_DESCRIPTION = 1 << 6;
+    private static final int DAY_WEATHER_ID = 1 << 7;
+    private static final int DAY_ALL_FIELDS = (1 << 8) - 1;
+
+    /**
+     * The parsed forecast.  When {@link #messageCode} is anything but HTTP_OK the remaining
+     * fields are not filled in.
+     */
+    public static class Forecast {
+        public int messageCode = HttpURLConnection.HTTP_OK;
+        // OWM's id for the city, or 0 if the response didn't carry one
+        public long cityId;
+        public String cityName;
+        public double cityLatitude;
+        public double cityLongitude;
+        public final List<ContentValues> days = new ArrayList<ContentValues>();
+    }
+
+    /**
+     * Parses the forecast from a stream, using the streaming parser where available.  The
+     * stream is not closed.
+     */
+    public static Forecast parse(InputStream in) throws IOException, JSONException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return parseStream(in);
+        }
+        return parse(readFully(in));
+    }
+
+    /**
+     * Parses a forecast that has already been read into a String, using org.json.
+     */
+    public static Forecast parse(String forecastJsonStr) throws JSONException {
+        return parse(new JSONObject(forecastJsonStr));
+    }
+
+    /**
+     * Parses a group response: an object whose "list" holds one daily forecast, in the same
+     * shape as a single-city response, per city asked for.  Cities the server couldn't answer
+     * for are simply absent from the list, so the caller matches results up by
+     * {@link Forecast#cityId}.  A group-level error code is reported as an IOException, since
+     * the caller's remedy is the same as for a failed request: ask for each city on its own.
+     * The stream is not closed.
+     */
+    public static List<Forecast> parseGroup(InputStream in) throws IOException, JSONException {
+        List<Forecast> forecasts = new ArrayList<Forecast>();
+        int messageCode = HttpURLConnection.HTTP_OK;
+        boolean hasList = false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+            try {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (OWM_MESSAGE_CODE.equals(name)) {
+                        messageCode = reader.nextInt();
+                    } else if (OWM_LIST.equals(name)) {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            forecasts.add(readForecast(reader));
+                        }
+                        reader.endArray();
+                        hasList = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } catch (IllegalStateException | NumberFormatException | MalformedJsonException e) {
+                throw new JSONException(e.getMessage());
+            }
+        } else {
+            JSONObject groupJson = new JSONObject(readFully(in));
+            messageCode = groupJson.optInt(OWM_MESSAGE_CODE, HttpURLConnection.HTTP_OK);
+            JSONArray forecastArray = groupJson.optJSONArray(OWM_LIST);
+            if (forecastArray != null) {
+                for (int i = 0; i < forecastArray.length(); i++) {
+                    forecasts.add(parse(forecastArray.getJSONObject(i)));
+                }
+                hasList = true;
+            }
+        }
+
+        if (messageCode != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Group request failed with code " + messageCode);
+        }
+        if (!hasList) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+        return forecasts;
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        // Read the input stream into a String
+        StringBuilder buffer = new StringBuilder();
+        InputStreamReader reader = new InputStreamReader(in, "UTF-8");
+        char[] chunk = new char[4096];
+        int read;
+        while ((read = reader.read(chunk)) != -1) {
+            buffer.append(chunk, 0, read);
+        }
+        if (buffer.length() == 0) {
+            // Stream was empty.  No point in parsing.
+            throw new IOException("Empty forecast response");
+        }
+        return buffer.toString();
+    }
+
+    private static Forecast parse(JSONObject forecastJson) throws JSONException {
+        Forecast forecast = new Forecast();
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            forecast.messageCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (forecast.messageCode != HttpURLConnection.HTTP_OK) {
+                return forecast;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        forecast.cityId = cityJson.optLong(OWM_CITY_ID);
+        forecast.cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        forecast.cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+        forecast.cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                    dayForecast.getInt(OWM_HUMIDITY));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                    dayForecast.getDouble(OWM_PRESSURE));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                    dayForecast.getDouble(OWM_WINDSPEED));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES,
+                    dayForecast.getDouble(OWM_WIND_DIRECTION));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                    temperatureObject.getDouble(OWM_MAX));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                    temperatureObject.getDouble(OWM_MIN));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                    weatherObject.getString(OWM_DESCRIPTION));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                    weatherObject.getInt(OWM_WEATHER_ID));
+            forecast.days.add(weatherValues);
+        }
+        return forecast;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static Forecast parseStream(InputStream in) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            return readForecast(reader);
+        } catch (IllegalStateException | NumberFormatException | MalformedJsonException e) {
+            // IllegalStateException is thrown by JsonReader when a token is not of the
+            // expected type
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Forecast readForecast(JsonReader reader) throws IOException, JSONException {
+        Forecast forecast = new Forecast();
+        boolean hasCity = false;
+        boolean hasList = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                // OWM sends this as a String for some responses and a number for others
+                forecast.messageCode = reader.nextInt();
+            } else if (OWM_CITY.equals(name)) {
+                readCity(reader, forecast);
+                hasCity = true;
+            } else if (OWM_LIST.equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    forecast.days.add(readDay(reader));
+                }
+                reader.endArray();
+                hasList = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (forecast.messageCode != HttpURLConnection.HTTP_OK) {
+            forecast.days.clear();
+            return forecast;
+        }
+        if (!hasList) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+        if (!hasCity) {
+            throw new JSONException("No value for " + OWM_CITY);
+        }
+        return forecast;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCity(JsonReader reader, Forecast forecast)
+            throws IOException, JSONException {
+        boolean hasName = false;
+        boolean hasCoord = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_ID.equals(name)) {
+                forecast.cityId = reader.nextLong();
+            } else if (OWM_CITY_NAME.equals(name)) {
+                forecast.cityName = reader.nextString();
+                hasName = true;
+            } else if (OWM_COORD.equals(name)) {
+                int seen = 0;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        forecast.cityLatitude = reader.nextDouble();
+                        seen |= 1;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        forecast.cityLongitude = reader.nextDouble();
+                        seen |= 2;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (seen != 3) {
+                    throw new JSONException("Incomplete " + OWM_COORD);
+                }
+                hasCoord = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (!hasName || !hasCoord) {
+            throw new JSONException("Incomplete " + OWM_CITY);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static ContentValues readDay(JsonReader reader) throws IOException, JSONException {
+        ContentValues weatherValues = new ContentValues();
+        int seen = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                        reader.nextDouble());
+                seen |= DAY_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                // org.json's getInt() truncates fractional values, so do the same here
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                        (int) reader.nextDouble());
+                seen |= DAY_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                        reader.nextDouble());
+                seen |= DAY_WINDSPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES,
+                        reader.nextDouble());
+                seen |= DAY_WIND_DIRECTION;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tempName = reader.nextName();
+                    if (OWM_MAX.equals(tempName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                                reader.nextDouble());
+                        seen |= DAY_MAX;
+                    } else if (OWM_MIN.equals(tempName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                                reader.nextDouble());
+                        seen |= DAY_MIN;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Only the first element of the "weather" array is used
+                reader.beginArray();
+                if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                                    reader.nextString());
+                            seen |= DAY_DESCRIPTION;
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                                    reader.nextInt());
+                            seen |= DAY_WEATHER_ID;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (seen != DAY_ALL_FIELDS) {
+            throw new JSONException("Incomplete day in " + OWM_LIST);
+        }
+        return weatherValues;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SunshineSyncAdapter;
+
+/**
+ * Schedules the sync as JobScheduler jobs run by {@link SunshineJobService}.  The periodic sync
+ * needs any network; the deferred work waits for an unmetered one and a charger.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class JobSchedulerBackend implements SyncBackend {
+    private static final String LOG_TAG = JobSchedulerBackend.class.getSimpleName();
+
+    static final int JOB_ID_SYNC = 1;
+    static final int JOB_ID_DEFERRED = 2;
+
+    @Override
+    public void schedulePeriodicSync(Context context, long intervalSeconds, long flexSeconds) {
+        // The job replaces the SyncAdapter's periodic sync, so the two don't both run
+        ContentResolver.removePeriodicSync(SunshineSyncAdapter.getSyncAccount(context),
+                context.getString(R.string.content_authority), new Bundle());
+
+        JobInfo.Builder builder = new JobInfo.Builder(JOB_ID_SYNC,
+                new ComponentName(context, SunshineJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setPersisted(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            builder.setPeriodic(intervalSeconds * 1000, flexSeconds * 1000);
+        } else {
+            builder.setPeriodic(intervalSeconds * 1000);
+        }
+        schedule(context, builder.build());
+    }
+
+    @Override
+    public boolean isPeriodicSyncScheduled(Context context) {
+        for (JobInfo job : getJobScheduler(context).getAllPendingJobs()) {
+            if (job.getId() == JOB_ID_SYNC) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void scheduleDeferredWork(Context context) {
+        // Replaces any deferred job still waiting; the work covers whatever is stored by then
+        schedule(context, new JobInfo.Builder(JOB_ID_DEFERRED,
+                new ComponentName(context, SunshineJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .build());
+    }
+
+    private static JobScheduler getJobScheduler(Context context) {
+        return (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+    }
+
+    private static void schedule(Context context, JobInfo job) {
+        if (getJobScheduler(context).schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            Log.e(LOG_TAG, "Unable to schedule job " + job.getId());
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.List;
+
+/**
+ * Fetches forecasts from OpenWeatherMap's daily forecast API, or from anything that speaks it,
+ * through a {@link WeatherHttpClient}.
+ */
+public class OpenWeatherMapSource implements WeatherSource {
+
+    public static final String FORECAST_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+
+    // Number of days of forecast to ask for
+    private static final int NUM_DAYS = 14;
+
+    private final WeatherHttpClient mHttpClient;
+    private final String mForecastUrl;
+    private final String mGroupUrl;
+    private final String mApiKey;
+
+    /**
+     * @param forecastUrl the endpoint for one location's forecast
+     * @param groupUrl the endpoint for several cities' forecasts, or empty if there is none
+     */
+    public OpenWeatherMapSource(WeatherHttpClient httpClient, String forecastUrl,
+                                String groupUrl, String apiKey) {
+        mHttpClient = httpClient;
+        mForecastUrl = forecastUrl;
+        mGroupUrl = groupUrl;
+        mApiKey = apiKey;
+    }
+
+    /**
+     * @return a source for the real OpenWeatherMap, with the endpoints and key of this build.
+     */
+    public static OpenWeatherMapSource createDefault(WeatherHttpClient httpClient) {
+        return new OpenWeatherMapSource(httpClient, FORECAST_URL,
+                BuildConfig.FORECAST_GROUP_URL, BuildConfig.OPEN_WEATHER_MAP_API_KEY);
+    }
+
+    @Override
+    public Result fetchForecast(String locationQuery, String etag, String lastModified,
+                                SyncTrace trace) throws IOException, JSONException {
+        final String QUERY_PARAM = "q";
+        Uri builtUri = buildForecastUri(mForecastUrl)
+                .appendQueryParameter(QUERY_PARAM, locationQuery)
+                .build();
+
+        WeatherHttpClient.Response response =
+                mHttpClient.get(new URL(builtUri.toString()), etag, lastModified);
+        trace.add(SyncTrace.PHASE_CONNECT, response.connectNanos);
+        long parseStart = SyncTrace.start();
+        try {
+            if (response.isNotModified()) {
+                return new Result(true, null, null, null);
+            }
+            // Parse the forecast straight off the (decompressed) input stream
+            InputStream inputStream = response.getBody();
+            try {
+                return new Result(false, ForecastJsonParser.parse(inputStream),
+                        response.etag, response.lastModified);
+            } finally {
+                inputStream.close();
+            }
+        } finally {
+            endParse(trace, response, parseStart);
+        }
+    }
+
+    @Override
+    public boolean supportsGroups() {
+        return !TextUtils.isEmpty(mGroupUrl);
+    }
+
+    @Override
+    public List<ForecastJsonParser.Forecast> fetchGroup(List<Long> cityIds, SyncTrace trace)
+            throws IOException, JSONException {
+        final String ID_PARAM = "id";
+        Uri builtUri = buildForecastUri(mGroupUrl)
+                .appendQueryParameter(ID_PARAM, TextUtils.join(",", cityIds))
+                .build();
+
+        // Validators are per location, so a group request is always unconditional
+        WeatherHttpClient.Response response =
+                mHttpClient.get(new URL(builtUri.toString()), null, null);
+        trace.add(SyncTrace.PHASE_CONNECT, response.connectNanos);
+        long parseStart = SyncTrace.start();
+        try {
+            InputStream inputStream = response.getBody();
+            try {
+                return ForecastJsonParser.parseGroup(inputStream);
+            } finally {
+                inputStream.close();
+            }
+        } finally {
+            endParse(trace, response, parseStart);
+        }
+    }
+
+    /**
+     * Closes the response and splits the time since parseStart between the download, which
+     * the parser spent waiting on the network, and the parse itself.
+     */
+    private static void endParse(SyncTrace trace, WeatherHttpClient.Response response,
+                                 long parseStart) {
+        response.close();
+        long downloadNanos = response.getDownloadNanos();
+        trace.add(SyncTrace.PHASE_DOWNLOAD, downloadNanos);
+        trace.end(SyncTrace.PHASE_PARSE, parseStart + downloadNanos);
+    }
+
+    /**
+     * @return a builder for a daily forecast query with the parameters every request shares.
+     * The caller adds the location(s) to fetch.
+     */
+    private Uri.Builder buildForecastUri(String baseUrl) {
+        // Possible parameters are avaiable at OWM's forecast API page, at
+        // http://openweathermap.org/API#forecast
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String DAYS_PARAM = "cnt";
+        final String APPID_PARAM = "APPID";
+
+        String format = "json";
+        String units = "metric";
+
+        return Uri.parse(baseUrl).buildUpon()
+                .appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                .appendQueryParameter(APPID_PARAM, mApiKey);
+    }
+}
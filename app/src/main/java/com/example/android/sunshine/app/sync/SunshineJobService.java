@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.content.SyncResult;
+import android.os.Build;
+import android.util.Log;
+import android.util.SparseArray;
+
+/**
+ * Runs the jobs {@link JobSchedulerBackend} schedules.  The periodic sync job runs the same
+ * pipeline as the SyncAdapter, on the same SunshineSyncAdapter instance; the deferred job
+ * prefetches the weather art.  Each job gets a thread of its own, since a JobService is
+ * called on the main thread.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class SunshineJobService extends JobService {
+    private static final String LOG_TAG = SunshineJobService.class.getSimpleName();
+
+    // The thread running each job, by job id
+    private final SparseArray<Thread> mWorkers = new SparseArray<Thread>();
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final int jobId = params.getJobId();
+        if (jobId != JobSchedulerBackend.JOB_ID_SYNC && jobId != JobSchedulerBackend.JOB_ID_DEFERRED) {
+            Log.w(LOG_TAG, "Unknown job " + jobId);
+            return false;
+        }
+
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean reschedule = false;
+                try {
+                    if (jobId == JobSchedulerBackend.JOB_ID_SYNC) {
+                        reschedule = runSync();
+                    } else {
+                        ArtPrefetcher.prefetch(getApplicationContext());
+                    }
+                } finally {
+                    synchronized (mWorkers) {
+                        mWorkers.remove(jobId);
+                    }
+                    // A stopped job has already been told to reschedule
+                    if (!Thread.currentThread().isInterrupted()) {
+                        jobFinished(params, reschedule);
+                    }
+                }
+            }
+        }, "SunshineJob-" + jobId);
+        synchronized (mWorkers) {
+            mWorkers.put(jobId, worker);
+        }
+        worker.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The job's constraints no longer hold; drop the work and try again later
+        Thread worker;
+        synchronized (mWorkers) {
+            worker = mWorkers.get(params.getJobId());
+            mWorkers.remove(params.getJobId());
+        }
+        if (worker != null) {
+            worker.interrupt();
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the sync failed in a way worth retrying with JobScheduler's backoff.  A
+     * sync held off by the circuit breaker is not; the next periodic run checks it again.
+     */
+    private boolean runSync() {
+        SyncResult syncResult = new SyncResult();
+        SunshineSyncService.getSyncAdapter(getApplicationContext()).performSync(syncResult);
+        return syncResult.hasSoftError() && syncResult.delayUntil == 0;
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.android.sunshine.app.sync;
 
 import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
 import android.os.IBinder;
 import android.util.Log;
@@ -14,10 +15,19 @@ public class SunshineSyncService extends Service {
     @Override
     public void onCreate() {
         Log.d("SunshineSyncService", "onCreate - SunshineSyncService");
+        getSyncAdapter(getApplicationContext());
+    }
+
+    /**
+     * @return the one SunshineSyncAdapter, shared with {@link SunshineJobService} so both run
+     * the sync on the same instance.
+     */
+    static SunshineSyncAdapter getSyncAdapter(Context context) {
         synchronized (sSyncAdapterLock) {
             if (sSunshineSyncAdapter == null) {
-                sSunshineSyncAdapter = new SunshineSyncAdapter(getApplicationContext(), true);
+                sSunshineSyncAdapter = new SunshineSyncAdapter(context, true);
             }
+            return sSunshineSyncAdapter;
         }
     }
 
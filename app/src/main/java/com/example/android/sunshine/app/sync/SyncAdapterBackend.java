@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SyncRequest;
+import android.os.Build;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SunshineSyncAdapter;
+import com.example.android.sunshine.app.Utility;
+
+/**
+ * Schedules the sync through the SyncAdapter framework, for devices without JobScheduler.
+ */
+public class SyncAdapterBackend implements SyncBackend {
+
+    @Override
+    public void schedulePeriodicSync(Context context, long intervalSeconds, long flexSeconds) {
+        Account account = SunshineSyncAdapter.getSyncAccount(context);
+        String authority = context.getString(R.string.content_authority);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // we can enable inexact timers in our periodic sync
+            SyncRequest request = new SyncRequest.Builder().
+                    syncPeriodic(intervalSeconds, flexSeconds).
+                    setSyncAdapter(account, authority).
+                    setExtras(new Bundle()).build();
+            ContentResolver.requestSync(request);
+        } else {
+            ContentResolver.addPeriodicSync(account,
+                    authority, new Bundle(), intervalSeconds);
+        }
+    }
+
+    @Override
+    public boolean isPeriodicSyncScheduled(Context context) {
+        return !ContentResolver.getPeriodicSyncs(SunshineSyncAdapter.getSyncAccount(context),
+                context.getString(R.string.content_authority)).isEmpty();
+    }
+
+    @Override
+    public void scheduleDeferredWork(Context context) {
+        // Nothing here can wait for the right conditions, so take them when they come up
+        if (Utility.isNetworkUnmetered(context) && Utility.isCharging(context)) {
+            ArtPrefetcher.prefetch(context);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+
+/**
+ * Schedules the background work of the sync: the periodic forecast sync itself, and the heavy
+ * work that can wait for a better moment.  The SyncAdapter's own scheduling can't say "only on
+ * an unmetered network" or "only while charging", so on devices that have JobScheduler the sync
+ * is scheduled as jobs instead; older devices keep scheduling it through the SyncAdapter.
+ * Either way the same sync pipeline runs.
+ */
+public interface SyncBackend {
+
+    /**
+     * Schedules the periodic sync, replacing whatever periodic sync was scheduled before.
+     *
+     * @param intervalSeconds how often to sync
+     * @param flexSeconds how much earlier than the interval the sync may run
+     */
+    void schedulePeriodicSync(Context context, long intervalSeconds, long flexSeconds);
+
+    /**
+     * @return true if this backend has a periodic sync scheduled.
+     */
+    boolean isPeriodicSyncScheduled(Context context);
+
+    /**
+     * Arranges for the deferrable work, such as prefetching weather art, to run on an unmetered
+     * network while the device is charging.  A backend that can't wait for those conditions
+     * does the work right away if they already hold, and otherwise leaves it to a later sync,
+     * so this must not be called from the UI thread.
+     */
+    void scheduleDeferredWork(Context context);
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.support.annotation.IntDef;
+
+import com.example.android.sunshine.app.R;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Stops the sync adapter from hammering the weather server while it is down.
+ *
+ * After {@link #FAILURE_THRESHOLD} syncs in a row fail to reach the server the breaker opens,
+ * and every sync fails fast without touching the network until the retry time.  The retry time
+ * backs off exponentially, with jitter, for as long as the failures continue.  Once it has
+ * passed the breaker is half open: the next sync is let through, and either closes the breaker
+ * or opens it again for longer.
+ *
+ * The state lives in the default SharedPreferences, next to the location status, so it
+ * survives the process and the UI can tell the user when the next attempt will be made.
+ */
+public class SyncCircuitBreaker {
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({STATE_CLOSED, STATE_OPEN, STATE_HALF_OPEN})
+    public @interface State {}
+
+    public static final int STATE_CLOSED = 0;
+    public static final int STATE_OPEN = 1;
+    public static final int STATE_HALF_OPEN = 2;
+
+    // Consecutive failed syncs before the breaker opens
+    static final int FAILURE_THRESHOLD = 3;
+    // The first open period is between half of and the whole of this; each further one doubles
+    static final long BASE_OPEN_MILLIS = 5 * 60 * 1000;
+    // Never stay open longer than the periodic sync interval
+    static final long MAX_OPEN_MILLIS = 3 * 60 * 60 * 1000;
+
+    private final SharedPreferences mPrefs;
+    private final String mFailuresKey;
+    private final String mRetryAtKey;
+    private final ExponentialBackoff mBackoff;
+
+    public SyncCircuitBreaker(Context context) {
+        this(context, new ExponentialBackoff(BASE_OPEN_MILLIS, MAX_OPEN_MILLIS));
+    }
+
+    SyncCircuitBreaker(Context context, ExponentialBackoff backoff) {
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mFailuresKey = context.getString(R.string.pref_sync_failures_key);
+        mRetryAtKey = context.getString(R.string.pref_sync_retry_at_key);
+        mBackoff = backoff;
+    }
+
+    @State
+    public int getState() {
+        return getState(System.currentTimeMillis());
+    }
+
+    @State
+    int getState(long nowMillis) {
+        if (getConsecutiveFailures() < FAILURE_THRESHOLD) {
+            return STATE_CLOSED;
+        }
+        return nowMillis < getRetryAtMillis() ? STATE_OPEN : STATE_HALF_OPEN;
+    }
+
+    /**
+     * @return true unless the breaker is open and the sync should fail fast.
+     */
+    public boolean allowRequest() {
+        return getState() != STATE_OPEN;
+    }
+
+    /**
+     * @return when the breaker lets the next sync through, in milliseconds since the epoch.
+     * Only meaningful while the breaker is open.
+     */
+    public long getRetryAtMillis() {
+        return mPrefs.getLong(mRetryAtKey, 0);
+    }
+
+    int getConsecutiveFailures() {
+        return mPrefs.getInt(mFailuresKey, 0);
+    }
+
+    /**
+     * Closes the breaker.  Like the other writes, this commits synchronously and must not be
+     * called from the UI thread.
+     */
+    public void recordSuccess() {
+        if (getConsecutiveFailures() == 0) return;
+        mPrefs.edit()
+                .putInt(mFailuresKey, 0)
+                .remove(mRetryAtKey)
+                .commit();
+    }
+
+    /**
+     * Counts a sync that failed to reach the server, opening the breaker once there have been
+     * enough of them.
+     *
+     * @return the time the breaker lets the next sync through, or 0 if it is still closed
+     */
+    public long recordFailure() {
+        return recordFailure(System.currentTimeMillis());
+    }
+
+    long recordFailure(long nowMillis) {
+        int failures = getConsecutiveFailures() + 1;
+        long retryAt = 0;
+        if (failures >= FAILURE_THRESHOLD) {
+            retryAt = nowMillis + mBackoff.getDelayMillis(failures - FAILURE_THRESHOLD + 1);
+        }
+        mPrefs.edit()
+                .putInt(mFailuresKey, failures)
+                .putLong(mRetryAtKey, retryAt)
+                .commit();
+        return retryAt;
+    }
+}
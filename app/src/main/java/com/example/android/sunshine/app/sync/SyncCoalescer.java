@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SunshineSyncAdapter;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Merges sync triggers that would only repeat a sync that is already on its way or has just
+ * finished.  The UI, the settings screen, the watch and the periodic sync all ask for syncs
+ * independently; the watch alone asks every time its cache is empty.
+ *
+ * A request for a location that a sync is already requested or running for joins that sync.
+ * A request for a location synced successfully within {@link #FRESHNESS_WINDOW_MILLIS} is
+ * answered straight away.  Only anything else goes to the SyncManager.  The sync itself checks
+ * in with {@link #onSyncStarted(String)}, which turns away a sync that would be redundant however
+ * it was triggered, and reports back with {@link #onSyncFinished(String, boolean)}.
+ *
+ * Every request gets its completion signal, whether it started a sync, joined one or was
+ * already satisfied.  The state is kept in memory only: after the process restarts, the first
+ * trigger always syncs.
+ */
+public class SyncCoalescer {
+
+    // How long a successful sync satisfies further requests for the same location
+    static final long FRESHNESS_WINDOW_MILLIS = 5 * 60 * 1000;
+    // How long a requested sync that hasn't started yet keeps absorbing new requests.  The
+    // SyncManager holds requests back while there is no network, so this is generous.
+    static final long REQUEST_TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+    /**
+     * Told when the sync a request was merged into has finished.
+     */
+    public interface Listener {
+        /**
+         * @param success true if the forecast for the location is now fresh
+         */
+        void onSyncFinished(boolean success);
+    }
+
+    /**
+     * Asks the platform for a sync; the sync adapter's expedited manual request in production.
+     */
+    public interface Trigger {
+        void requestSync(Context context);
+    }
+
+    private static SyncCoalescer sInstance;
+
+    private final Clock mClock;
+    private final Executor mCallbackExecutor;
+    private final Trigger mTrigger;
+
+    // The location a sync has been requested for but hasn't started on yet, and since when
+    private String mRequestedLocation;
+    private long mRequestedAt;
+    // The location the running sync is for; null if none is running
+    private String mRunningLocation;
+    // The location last synced successfully, and when
+    private String mFreshLocation;
+    private long mFreshAt;
+
+    private final List<Waiter> mWaiters = new ArrayList<Waiter>();
+
+    private static class Waiter {
+        final String location;
+        final Listener listener;
+
+        Waiter(String location, Listener listener) {
+            this.location = location;
+            this.listener = listener;
+        }
+    }
+
+    SyncCoalescer(Clock clock, Executor callbackExecutor, Trigger trigger) {
+        mClock = clock;
+        mCallbackExecutor = callbackExecutor;
+        mTrigger = trigger;
+    }
+
+    /**
+     * @return the process-wide coalescer, which requests expedited manual syncs from the
+     * SyncManager and calls listeners on the main thread.
+     */
+    public static synchronized SyncCoalescer getInstance() {
+        if (sInstance == null) {
+            final Handler mainHandler = new Handler(Looper.getMainLooper());
+            sInstance = new SyncCoalescer(Clock.SYSTEM, new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    mainHandler.post(command);
+                }
+            }, new Trigger() {
+                @Override
+                public void requestSync(Context context) {
+                    Bundle bundle = new Bundle();
+                    bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+                    bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+                    ContentResolver.requestSync(SunshineSyncAdapter.getSyncAccount(context),
+                            context.getString(R.string.content_authority), bundle);
+                }
+            });
+        }
+        return sInstance;
+    }
+
+    /**
+     * Requests a sync of the location, unless one is already coming or has just been done.
+     *
+     * @param listener told once the location has been synced, or null
+     * @return true if a new sync was requested, false if the request was merged
+     */
+    public synchronized boolean requestSync(Context context, String location, Listener listener) {
+        long now = mClock.currentTimeMillis();
+        if (location.equals(mRunningLocation) || (location.equals(mRequestedLocation)
+                && now - mRequestedAt < REQUEST_TIMEOUT_MILLIS)) {
+            addWaiter(location, listener);
+            return false;
+        }
+        if (isFresh(location, now)) {
+            deliver(listener, true);
+            return false;
+        }
+        mRequestedLocation = location;
+        mRequestedAt = now;
+        addWaiter(location, listener);
+        mTrigger.requestSync(context);
+        return true;
+    }
+
+    /**
+     * Called by the sync as it starts on a location.
+     *
+     * @return false if the location was synced too recently for this sync to be worth running.
+     * The sync must then do nothing, and not call {@link #onSyncFinished(String, boolean)}.
+     */
+    public synchronized boolean onSyncStarted(String location) {
+        if (location.equals(mRequestedLocation)) {
+            mRequestedLocation = null;
+        }
+        if (isFresh(location, mClock.currentTimeMillis())) {
+            notifyWaiters(location, true);
+            return false;
+        }
+        mRunningLocation = location;
+        return true;
+    }
+
+    /**
+     * Called by the sync once it is done with the location, whether or not it succeeded.
+     */
+    public synchronized void onSyncFinished(String location, boolean success) {
+        mRunningLocation = null;
+        if (success) {
+            mFreshLocation = location;
+            mFreshAt = mClock.currentTimeMillis();
+        }
+        notifyWaiters(location, success);
+    }
+
+    private boolean isFresh(String location, long now) {
+        return location.equals(mFreshLocation) && now - mFreshAt < FRESHNESS_WINDOW_MILLIS;
+    }
+
+    private void addWaiter(String location, Listener listener) {
+        if (listener != null) {
+            mWaiters.add(new Waiter(location, listener));
+        }
+    }
+
+    private void notifyWaiters(String location, boolean success) {
+        Iterator<Waiter> it = mWaiters.iterator();
+        while (it.hasNext()) {
+            Waiter waiter = it.next();
+            if (waiter.location.equals(location)) {
+                it.remove();
+                deliver(waiter.listener, success);
+            }
+        }
+    }
+
+    private void deliver(final Listener listener, final boolean success) {
+        if (listener == null) return;
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                listener.onSyncFinished(success);
+            }
+        });
+    }
+}
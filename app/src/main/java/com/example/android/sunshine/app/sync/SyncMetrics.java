@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+
+/**
+ * Keeps track of what syncs cost in transferred bytes: the last sync's figures and running
+ * totals since install.  Kept in its own preferences file so it never shows up in settings.
+ *
+ * Each sync's timings and transfer are also appended to the sync metrics table, which keeps a
+ * rolling window of recent syncs to take percentiles over.
+ */
+public class SyncMetrics {
+
+    private static final String PREFS_NAME = "sync_metrics";
+
+    static final String KEY_LAST_COMPRESSED_BYTES = "last_compressed_bytes";
+    static final String KEY_LAST_UNCOMPRESSED_BYTES = "last_uncompressed_bytes";
+    static final String KEY_TOTAL_COMPRESSED_BYTES = "total_compressed_bytes";
+    static final String KEY_TOTAL_UNCOMPRESSED_BYTES = "total_uncompressed_bytes";
+    static final String KEY_SYNC_COUNT = "sync_count";
+
+    private static SharedPreferences getPrefs(Context c) {
+        return c.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Records the body bytes transferred by one sync.  Like setLocationStatus in the sync
+     * adapter, this commits synchronously and must not be called from the UI thread.
+     *
+     * @param compressedBytes bytes received over the wire
+     * @param uncompressedBytes bytes after decompression, as seen by the parser
+     */
+    public static void recordTransfer(Context c, long compressedBytes, long uncompressedBytes) {
+        SharedPreferences sp = getPrefs(c);
+        sp.edit()
+                .putLong(KEY_LAST_COMPRESSED_BYTES, compressedBytes)
+                .putLong(KEY_LAST_UNCOMPRESSED_BYTES, uncompressedBytes)
+                .putLong(KEY_TOTAL_COMPRESSED_BYTES,
+                        sp.getLong(KEY_TOTAL_COMPRESSED_BYTES, 0) + compressedBytes)
+                .putLong(KEY_TOTAL_UNCOMPRESSED_BYTES,
+                        sp.getLong(KEY_TOTAL_UNCOMPRESSED_BYTES, 0) + uncompressedBytes)
+                .putLong(KEY_SYNC_COUNT, sp.getLong(KEY_SYNC_COUNT, 0) + 1)
+                .commit();
+    }
+
+    public static long getLastCompressedBytes(Context c) {
+        return getPrefs(c).getLong(KEY_LAST_COMPRESSED_BYTES, 0);
+    }
+
+    public static long getLastUncompressedBytes(Context c) {
+        return getPrefs(c).getLong(KEY_LAST_UNCOMPRESSED_BYTES, 0);
+    }
+
+    public static long getTotalCompressedBytes(Context c) {
+        return getPrefs(c).getLong(KEY_TOTAL_COMPRESSED_BYTES, 0);
+    }
+
+    public static long getTotalUncompressedBytes(Context c) {
+        return getPrefs(c).getLong(KEY_TOTAL_UNCOMPRESSED_BYTES, 0);
+    }
+
+    public static long getSyncCount(Context c) {
+        return getPrefs(c).getLong(KEY_SYNC_COUNT, 0);
+    }
+
+    /**
+     * Appends one sync's timings and transfer to the sync metrics table.  Must not be called
+     * from the UI thread.
+     *
+     * @param startTime when the sync started, in milliseconds since the epoch
+     * @param locations how many locations the sync fetched
+     * @param errors how many of them failed
+     */
+    public static void recordSync(Context c, SyncTrace trace, long startTime,
+                                  long compressedBytes, long uncompressedBytes,
+                                  int locations, int errors) {
+        ContentValues values = new ContentValues();
+        values.put(SyncMetricsEntry.COLUMN_START_TIME, startTime);
+        values.put(SyncMetricsEntry.COLUMN_DURATION, trace.getElapsedMillis());
+        values.put(SyncMetricsEntry.COLUMN_CONNECT, trace.getMillis(SyncTrace.PHASE_CONNECT));
+        values.put(SyncMetricsEntry.COLUMN_DOWNLOAD, trace.getMillis(SyncTrace.PHASE_DOWNLOAD));
+        values.put(SyncMetricsEntry.COLUMN_PARSE, trace.getMillis(SyncTrace.PHASE_PARSE));
+        values.put(SyncMetricsEntry.COLUMN_COMMIT, trace.getMillis(SyncTrace.PHASE_COMMIT));
+        values.put(SyncMetricsEntry.COLUMN_NOTIFY, trace.getMillis(SyncTrace.PHASE_NOTIFY));
+        values.put(SyncMetricsEntry.COLUMN_WEAR, trace.getMillis(SyncTrace.PHASE_WEAR));
+        values.put(SyncMetricsEntry.COLUMN_COMPRESSED_BYTES, compressedBytes);
+        values.put(SyncMetricsEntry.COLUMN_UNCOMPRESSED_BYTES, uncompressedBytes);
+        values.put(SyncMetricsEntry.COLUMN_LOCATIONS, locations);
+        values.put(SyncMetricsEntry.COLUMN_ERRORS, errors);
+        c.getContentResolver().insert(SyncMetricsEntry.CONTENT_URI, values);
+    }
+
+    /**
+     * @param column one of the {@link SyncMetricsEntry} columns, such as COLUMN_DURATION
+     * @param percentile between 0 and 100
+     * @return the given percentile of the column over the recorded syncs, by the nearest-rank
+     * method, or -1 if no sync has been recorded.
+     */
+    public static long getPercentile(Context c, String column, int percentile) {
+        Cursor cursor = c.getContentResolver().query(SyncMetricsEntry.CONTENT_URI,
+                new String[]{column}, null, null, column + " ASC");
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            int count = cursor.getCount();
+            if (count == 0) {
+                return -1;
+            }
+            // Nearest rank: the smallest value with at least percentile% of values at or below it
+            int rank = (percentile * count + 99) / 100;
+            cursor.moveToPosition(Math.max(0, rank - 1));
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+/**
+ * One rule of the {@link SyncScheduler}.  The scheduler passes the interval through its policies
+ * in order, each stretching or shortening it according to the signal it cares about.
+ */
+public interface SyncPolicy {
+
+    /**
+     * @param intervalSeconds the interval as adjusted by the policies before this one
+     * @param signals what is known about the last sync and the device
+     * @param nowMillis the scheduler's clock
+     * @return the adjusted interval, in seconds
+     */
+    long adjustInterval(long intervalSeconds, SyncSignals signals, long nowMillis);
+}
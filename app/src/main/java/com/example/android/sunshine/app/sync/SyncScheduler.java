@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks the interval until the next periodic sync from what the last one found, instead of
+ * always waiting the same three hours.  A forecast that keeps coming back unchanged is checked
+ * less often, especially on a metered network; one that is changing, running out, or being
+ * looked at is checked more often.
+ *
+ * The decision is made by a chain of {@link SyncPolicy policies}, applied in the order they were
+ * added, and the result is clamped to [{@link #MIN_INTERVAL}, {@link #MAX_INTERVAL}].  Time is
+ * read from a {@link Clock} so the whole thing can be tested without waiting.
+ */
+public class SyncScheduler {
+
+    // Bounds on any interval the policies come up with, in seconds
+    public static final long MIN_INTERVAL = 30 * 60;
+    public static final long MAX_INTERVAL = 12 * 60 * 60;
+
+    // How recently the UI or watch face must have asked for weather to count as active
+    static final long ACTIVE_WINDOW_MILLIS = 60 * 60 * 1000;
+    // Longest interval while someone is looking, or while the forecast is running out
+    static final long ACTIVE_INTERVAL = 60 * 60;
+    // Fewer stored days ahead than this and the forecast is running out
+    static final int MIN_DAYS_AHEAD = 3;
+
+    private static final String PREFS_NAME = "sync_scheduler";
+    private static final String KEY_LAST_ACTIVE = "last_active";
+    private static final String KEY_SCHEDULED_INTERVAL = "scheduled_interval";
+
+    private final long mBaseInterval;
+    private final Clock mClock;
+    private final List<SyncPolicy> mPolicies = new ArrayList<SyncPolicy>();
+
+    /**
+     * Creates a scheduler with no policies, which always answers the base interval.
+     *
+     * @param baseIntervalSeconds the interval the policies start from
+     */
+    public SyncScheduler(long baseIntervalSeconds, Clock clock) {
+        mBaseInterval = baseIntervalSeconds;
+        mClock = clock;
+    }
+
+    /**
+     * @return a scheduler with the standard policies, on the system clock.
+     */
+    public static SyncScheduler createDefault(long baseIntervalSeconds) {
+        return new SyncScheduler(baseIntervalSeconds, Clock.SYSTEM)
+                .addPolicy(new ChangeRatePolicy())
+                .addPolicy(new NetworkPolicy())
+                .addPolicy(new ChargingPolicy())
+                .addPolicy(new ForecastHorizonPolicy())
+                .addPolicy(new ActivityPolicy());
+    }
+
+    public SyncScheduler addPolicy(SyncPolicy policy) {
+        mPolicies.add(policy);
+        return this;
+    }
+
+    /**
+     * @return the number of seconds to wait before the next periodic sync.
+     */
+    public long getNextIntervalSeconds(SyncSignals signals) {
+        long now = mClock.currentTimeMillis();
+        long interval = mBaseInterval;
+        for (SyncPolicy policy : mPolicies) {
+            interval = policy.adjustInterval(interval, signals, now);
+        }
+        return Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+    }
+
+    /**
+     * Doubles the interval when the last sync changed nothing, halves it when it changed at
+     * least half of the days received.
+     */
+    public static class ChangeRatePolicy implements SyncPolicy {
+        @Override
+        public long adjustInterval(long intervalSeconds, SyncSignals signals, long nowMillis) {
+            if (signals.changedDays == 0) {
+                return intervalSeconds * 2;
+            }
+            if (signals.changedDays * 2 >= signals.receivedDays) {
+                return intervalSeconds / 2;
+            }
+            return intervalSeconds;
+        }
+    }
+
+    /**
+     * Stretches the interval by half again on a metered network.
+     */
+    public static class NetworkPolicy implements SyncPolicy {
+        @Override
+        public long adjustInterval(long intervalSeconds, SyncSignals signals, long nowMillis) {
+            return signals.unmetered ? intervalSeconds : intervalSeconds * 3 / 2;
+        }
+    }
+
+    /**
+     * Shortens the interval by a third while charging, when syncing costs no battery.
+     */
+    public static class ChargingPolicy implements SyncPolicy {
+        @Override
+        public long adjustInterval(long intervalSeconds, SyncSignals signals, long nowMillis) {
+            return signals.charging ? intervalSeconds * 2 / 3 : intervalSeconds;
+        }
+    }
+
+    /**
+     * Caps the interval while the stored forecast is running out.
+     */
+    public static class ForecastHorizonPolicy implements SyncPolicy {
+        @Override
+        public long adjustInterval(long intervalSeconds, SyncSignals signals, long nowMillis) {
+            return signals.daysAhead < MIN_DAYS_AHEAD
+                    ? Math.min(intervalSeconds, ACTIVE_INTERVAL) : intervalSeconds;
+        }
+    }
+
+    /**
+     * Caps the interval while the app or the watch face is in use, so what is on screen
+     * stays fresh.
+     */
+    public static class ActivityPolicy implements SyncPolicy {
+        @Override
+        public long adjustInterval(long intervalSeconds, SyncSignals signals, long nowMillis) {
+            boolean active = signals.lastActiveMillis > 0
+                    && nowMillis - signals.lastActiveMillis < ACTIVE_WINDOW_MILLIS;
+            return active ? Math.min(intervalSeconds, ACTIVE_INTERVAL) : intervalSeconds;
+        }
+    }
+
+    private static SharedPreferences getPrefs(Context c) {
+        return c.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Records that the UI or the watch face just asked for weather.  Safe to call from the UI
+     * thread.
+     */
+    public static void noteActive(Context c) {
+        getPrefs(c).edit().putLong(KEY_LAST_ACTIVE, System.currentTimeMillis()).apply();
+    }
+
+    public static long getLastActiveMillis(Context c) {
+        return getPrefs(c).getLong(KEY_LAST_ACTIVE, 0);
+    }
+
+    /**
+     * @return the periodic sync interval last scheduled, in seconds, or 0 if none has been.
+     */
+    public static long getScheduledInterval(Context c) {
+        return getPrefs(c).getLong(KEY_SCHEDULED_INTERVAL, 0);
+    }
+
+    public static void setScheduledInterval(Context c, long intervalSeconds) {
+        getPrefs(c).edit().putLong(KEY_SCHEDULED_INTERVAL, intervalSeconds).commit();
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+/**
+ * What the {@link SyncScheduler} knows about the sync that just finished and the device it ran
+ * on.
+ */
+public class SyncSignals {
+    // Forecast days the last sync received, and how many of those were new or changed.  Both
+    // are 0 when every location came back not modified.
+    public int receivedDays;
+    public int changedDays;
+    // Days of forecast, from today on, stored for the preferred location
+    public int daysAhead;
+    public boolean unmetered;
+    public boolean charging;
+    // The last time the app's UI or the watch face asked for weather, or 0 if never
+    public long lastActiveMillis;
+}
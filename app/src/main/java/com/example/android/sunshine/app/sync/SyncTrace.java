@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Adds up where one sync spends its time, phase by phase, on the monotonic clock.  Locations
+ * are synced concurrently, so a phase's time is the sum over every location and can exceed the
+ * wall-clock duration of the sync.  Safe to share between the sync's threads.
+ */
+public class SyncTrace {
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({PHASE_CONNECT, PHASE_DOWNLOAD, PHASE_PARSE, PHASE_COMMIT, PHASE_NOTIFY, PHASE_WEAR})
+    public @interface Phase {}
+
+    // DNS lookup, connecting and waiting for the response headers
+    public static final int PHASE_CONNECT = 0;
+    // Reading the response body off the network
+    public static final int PHASE_DOWNLOAD = 1;
+    // Parsing the body, not counting the time spent waiting for it
+    public static final int PHASE_PARSE = 2;
+    // Writing the forecast to the database
+    public static final int PHASE_COMMIT = 3;
+    // Building and posting the notification
+    public static final int PHASE_NOTIFY = 4;
+    // Pushing today's forecast to the wearable
+    public static final int PHASE_WEAR = 5;
+
+    private static final int NUM_PHASES = 6;
+
+    private final AtomicLongArray mNanos = new AtomicLongArray(NUM_PHASES);
+    private final long mStartNanos = System.nanoTime();
+
+    /**
+     * @return a timestamp to hand back to {@link #end(int, long)}.
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Adds the time since startNanos to the phase.
+     */
+    public void end(@Phase int phase, long startNanos) {
+        add(phase, System.nanoTime() - startNanos);
+    }
+
+    public void add(@Phase int phase, long nanos) {
+        mNanos.addAndGet(phase, nanos);
+    }
+
+    public long getMillis(@Phase int phase) {
+        return mNanos.get(phase) / 1000000;
+    }
+
+    /**
+     * @return the wall-clock time since this trace was created.
+     */
+    public long getElapsedMillis() {
+        return (System.nanoTime() - mStartNanos) / 1000000;
+    }
+}
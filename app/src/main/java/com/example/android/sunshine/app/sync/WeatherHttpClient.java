@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The HTTP layer under the sync adapter.  Issues conditional GETs so that a forecast the server
+ * hasn't changed since the last sync comes back as a body-less 304, and asks for gzip so that
+ * the ones that have changed cost a fraction of the bytes.
+ *
+ * The gzip negotiation is done here rather than left to HttpURLConnection: the platform only
+ * decompresses transparently when it added the Accept-Encoding header itself, and in that case
+ * it hides how many bytes actually crossed the wire.  Every body read through a client is added
+ * to its {@link #getCompressedBytes() compressed} and {@link #getUncompressedBytes() uncompressed}
+ * totals, so the sync can report what it cost.
+ *
+ * A client may be shared by concurrent fetches.  At most {@link #MAX_REQUESTS_PER_HOST}
+ * responses per host are open at any time; further requests block until one is closed.
+ *
+ * A client built to make more than one attempt retries requests that failed to connect or
+ * were answered with a 5xx, waiting an exponentially growing, jittered delay in between.
+ */
+public class WeatherHttpClient {
+    private static final String LOG_TAG = WeatherHttpClient.class.getSimpleName();
+
+    static final String HEADER_ETAG = "ETag";
+    static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    static final String ENCODING_GZIP = "gzip";
+
+    // Most responses open against any one host at the same time
+    static final int MAX_REQUESTS_PER_HOST = 2;
+
+    // Delay before the first retry is between half of and the whole of this; each further
+    // one doubles, up to the maximum
+    static final long RETRY_BASE_MILLIS = 1000;
+    static final long RETRY_MAX_MILLIS = 8000;
+
+    private final AtomicLong mCompressedBytes = new AtomicLong();
+    private final AtomicLong mUncompressedBytes = new AtomicLong();
+    private final Map<String, Semaphore> mHostPermits = new HashMap<String, Semaphore>();
+    private final int mMaxAttempts;
+    private final ExponentialBackoff mRetryBackoff;
+
+    /**
+     * Creates a client that makes a single attempt per request.
+     */
+    public WeatherHttpClient() {
+        this(1);
+    }
+
+    /**
+     * @param maxAttempts how many times to try a request that fails to connect or gets a 5xx
+     */
+    public WeatherHttpClient(int maxAttempts) {
+        this(maxAttempts, new ExponentialBackoff(RETRY_BASE_MILLIS, RETRY_MAX_MILLIS));
+    }
+
+    WeatherHttpClient(int maxAttempts, ExponentialBackoff retryBackoff) {
+        mMaxAttempts = maxAttempts;
+        mRetryBackoff = retryBackoff;
+    }
+
+    /**
+     * An open response.  The caller must {@link #close()} it once the body has been consumed.
+     */
+    public class Response {
+        public final int code;
+        // Validators to store for the next request.  Null if the server didn't send them.
+        public final String etag;
+        public final String lastModified;
+        // Time from opening the connection to having the response headers, including the
+        // DNS lookup
+        public final long connectNanos;
+        private final HttpURLConnection mConnection;
+        private final Semaphore mHostPermit;
+        private CountingInputStream mWireStream;
+        private CountingInputStream mBodyStream;
+        private boolean mClosed;
+
+        Response(HttpURLConnection connection, Semaphore hostPermit, long connectStartNanos)
+                throws IOException {
+            mConnection = connection;
+            mHostPermit = hostPermit;
+            code = connection.getResponseCode();
+            connectNanos = System.nanoTime() - connectStartNanos;
+            etag = connection.getHeaderField(HEADER_ETAG);
+            lastModified = connection.getHeaderField(HEADER_LAST_MODIFIED);
+        }
+
+        public boolean isNotModified() {
+            return code == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        /**
+         * @return the time spent so far waiting for the body to come off the network.
+         */
+        public long getDownloadNanos() {
+            return mWireStream == null ? 0 : mWireStream.getReadNanos();
+        }
+
+        /**
+         * @return the decompressed response body, to be read as a stream.  Like
+         * {@link HttpURLConnection#getInputStream()} this throws an IOException for error
+         * responses.
+         */
+        public InputStream getBody() throws IOException {
+            if (mBodyStream == null) {
+                mWireStream = new CountingInputStream(mConnection.getInputStream());
+                InputStream decoded = mWireStream;
+                if (ENCODING_GZIP.equalsIgnoreCase(mConnection.getContentEncoding())) {
+                    decoded = new GZIPInputStream(mWireStream);
+                }
+                mBodyStream = new CountingInputStream(decoded);
+            }
+            return mBodyStream;
+        }
+
+        /**
+         * Releases the connection and its host permit, and adds the bytes read from this
+         * response to the client's totals.
+         */
+        public void close() {
+            if (mClosed) return;
+            mClosed = true;
+            if (mBodyStream != null) {
+                mCompressedBytes.addAndGet(mWireStream.getCount());
+                mUncompressedBytes.addAndGet(mBodyStream.getCount());
+                try {
+                    mBodyStream.close();
+                } catch (IOException e) {
+                    // nothing more to read anyway
+                }
+                mBodyStream = null;
+            }
+            mConnection.disconnect();
+            mHostPermit.release();
+        }
+    }
+
+    private Semaphore getHostPermits(String host) {
+        synchronized (mHostPermits) {
+            Semaphore permits = mHostPermits.get(host);
+            if (permits == null) {
+                permits = new Semaphore(MAX_REQUESTS_PER_HOST, true);
+                mHostPermits.put(host, permits);
+            }
+            return permits;
+        }
+    }
+
+    /**
+     * @return the body bytes received over the wire since the last {@link #resetCounters()}.
+     */
+    public long getCompressedBytes() {
+        return mCompressedBytes.get();
+    }
+
+    /**
+     * @return the body bytes handed to the parser since the last {@link #resetCounters()}.
+     */
+    public long getUncompressedBytes() {
+        return mUncompressedBytes.get();
+    }
+
+    public void resetCounters() {
+        mCompressedBytes.set(0);
+        mUncompressedBytes.set(0);
+    }
+
+    /**
+     * Issues a GET, made conditional by whichever of the validators is not null.  Failures are
+     * retried up to the client's attempt limit; when that runs out, the last 5xx response is
+     * returned or the last IOException thrown.
+     *
+     * @param url the resource to fetch
+     * @param etag the ETag of the copy we already have, or null
+     * @param lastModified the Last-Modified date of the copy we already have, or null
+     */
+    public Response get(URL url, String etag, String lastModified) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Response response = getOnce(url, etag, lastModified);
+                if (response.code < HttpURLConnection.HTTP_INTERNAL_ERROR
+                        || attempt >= mMaxAttempts) {
+                    return response;
+                }
+                Log.w(LOG_TAG, "Attempt " + attempt + " at " + url.getHost() +
+                        " answered " + response.code);
+                response.close();
+            } catch (IOException e) {
+                // Don't retry once the sync has been cancelled
+                if (attempt >= mMaxAttempts || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                Log.w(LOG_TAG, "Attempt " + attempt + " at " + url.getHost() + " failed", e);
+            }
+            try {
+                Thread.sleep(mRetryBackoff.getDelayMillis(attempt));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting to retry " + url.getHost());
+            }
+        }
+    }
+
+    private Response getOnce(URL url, String etag, String lastModified) throws IOException {
+        Semaphore hostPermit = getHostPermits(url.getHost());
+        try {
+            hostPermit.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + url.getHost());
+        }
+        HttpURLConnection urlConnection = null;
+        Response response = null;
+        long connectStart = System.nanoTime();
+        try {
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setRequestMethod("GET");
+            // We do our own revalidation; don't let a platform response cache answer for us
+            urlConnection.setUseCaches(false);
+            urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+            if (etag != null) {
+                urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, etag);
+            }
+            if (lastModified != null) {
+                urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+            }
+            urlConnection.connect();
+            response = new Response(urlConnection, hostPermit, connectStart);
+            return response;
+        } finally {
+            if (response == null) {
+                // Failed before the Response took ownership of the connection and permit
+                if (urlConnection != null) {
+                    urlConnection.disconnect();
+                }
+                hostPermit.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where the sync gets its forecasts from.  The sync adapter only decides what to fetch and how
+ * to store it; fetching and parsing are up to the source, so the sync can run against a local
+ * stub server as easily as against OpenWeatherMap.
+ */
+public interface WeatherSource {
+
+    /**
+     * The outcome of fetching one location's forecast.
+     */
+    class Result {
+        // True if the forecast we hold is still current; there is then no forecast
+        public final boolean notModified;
+        public final ForecastJsonParser.Forecast forecast;
+        // Validators to store with the forecast.  Null if the server didn't send them.
+        public final String etag;
+        public final String lastModified;
+
+        public Result(boolean notModified, ForecastJsonParser.Forecast forecast,
+                      String etag, String lastModified) {
+            this.notModified = notModified;
+            this.forecast = forecast;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Fetches the daily forecast for one location, made conditional on the validators of the
+     * forecast we already hold, if any.
+     *
+     * @param locationQuery the location setting, as the user entered it
+     * @param trace where to add the time spent connecting, downloading and parsing
+     * @throws IOException if the server couldn't be reached or answered with an error
+     * @throws JSONException if the forecast couldn't be parsed
+     */
+    Result fetchForecast(String locationQuery, String etag, String lastModified,
+                         SyncTrace trace) throws IOException, JSONException;
+
+    /**
+     * @return true if this source can fetch several cities' forecasts in one request.
+     */
+    boolean supportsGroups();
+
+    /**
+     * Fetches the daily forecasts of several cities at once.  Only call this if
+     * {@link #supportsGroups()}.
+     *
+     * @param cityIds the cities' ids, as the source reported them in earlier forecasts
+     * @param trace where to add the time spent connecting, downloading and parsing
+     * @return the forecasts the source answered with, each carrying its city id
+     */
+    List<ForecastJsonParser.Forecast> fetchGroup(List<Long> cityIds, SyncTrace trace)
+            throws IOException, JSONException;
+}